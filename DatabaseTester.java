@@ -1,6 +1,28 @@
 import db.Database;
+import db.PreparedStatement;
+import db.QueryMetricsMBean;
+import db.QueryServer;
+import db.SyncPolicy;
 import org.junit.Test;
 
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.Assert.*;
 
 public class DatabaseTester {
@@ -139,6 +161,507 @@ public class DatabaseTester {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testPreparedStatement() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y float, z string)");
+
+        PreparedStatement insert = db.prepare("insert into T1 values ?, ?, ?");
+        assertEquals(3, insert.getParameterCount());
+        insert.setInt(1, 1);
+        insert.setFloat(2, 2.5);
+        insert.setString(3, "a");
+        assertEquals("", insert.execute());
+        insert.setInt(1, 7);
+        insert.setNoValue(2);
+        insert.setString(3, "b");
+        assertEquals("", insert.execute());
+
+        PreparedStatement select = db.prepare("select x,z from T1 where x > ?");
+        select.setInt(1, 0);
+        assertEquals("x int,z string\n1,'a'\n7,'b'", select.execute());
+        select.setInt(1, 5);
+        assertEquals("x int,z string\n7,'b'", select.execute());
+
+        select.clearParameters();
+        assertEquals("ERROR: No value bound to parameter 1", select.execute());
+
+        //a quote would end the string early, and the row would read back as other values
+        try {
+            insert.setString(3, "a', 'b");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("x int,z string\n1,'a'\n7,'b'", db.transact("select x,z from T1"));
+        }
+    }
+
+    @Test
+    public void testLiteralsInQueries() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y float, z string)");
+        assertEquals("", db.transact("insert into T1 values 1, 2.5, 'a,b'"));
+        assertEquals("", db.transact("insert into T1 values 2, -1.5, 'band'"));
+
+        assertEquals("x int,y float,z string\n1,2.500,'a,b'",
+                db.transact("select * from T1 where y > 0.5"));
+        assertEquals("x int,z string\n2,'band'",
+                db.transact("select x, z from T1 where z == 'band' and x > 1"));
+        assertEquals("w float\n5.500\n1.500",
+                db.transact("select y - -3 as w from T1"));
+        assertEquals("Malformed select: x from T1 where",
+                db.transact("select x from T1 where"));
+    }
+
+    @Test
+    public void testColumnArithmetic() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y int, z float)");
+        db.transact("insert into T1 values 6, 0, 1.5");
+        db.transact("insert into T1 values NOVALUE, 2, NaN");
+        db.transact("insert into T1 values 4, NOVALUE, 0.0");
+        assertEquals("a int,b int,c float\nNaN,6,9.000\n0,-2,NaN\nNaN,4,0.000",
+                db.transact("select x / y as a, x - y as b, x * z as c from T1"));
+        assertEquals("a float\n4.000\nNaN\nNaN",
+                db.transact("select x / z as a from T1"));
+    }
+
+    @Test
+    public void testStreamingOutput() throws Exception {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y float)");
+        double[] values = {0.0005, 1.0005, -0.0004, 2.5, -1234.5678, 1e12, 0.1};
+        for (int i = 0; i < 3000; i++) {
+            db.transact("insert into T1 values " + i + ", " + values[i % values.length]);
+        }
+        String[] queries = {"select x, y, y * 3 as z from T1 where x > 2",
+                            "print T1", "select * from T2", ""};
+        for (String query : queries) {
+            StringBuilder out = new StringBuilder();
+            boolean written = db.transact(query, out);
+            assertEquals(db.transact(query), out.toString());
+            assertEquals(out.length() > 0, written);
+        }
+        assertEquals("x int,y float\n0,0.001\n1,1.001\n2,-0.000",
+                db.transact("select * from T1 where x < 3"));
+    }
+
+    @Test
+    public void testJoinOrder() {
+        Database db = new Database();
+        db.transact("create table A (k int, x int)");
+        db.transact("create table B (k int, m int)");
+        db.transact("create table C (m int, y string)");
+        for (int i = 0; i < 6; i++) {
+            db.transact("insert into A values " + (i % 3) + ", " + i);
+            db.transact("insert into B values " + (2 - i % 3) + ", " + (i % 2));
+        }
+        db.transact("insert into C values 1, 'one'");
+        db.transact("insert into C values 0, 'zero'");
+
+        //A and C share no column, so B is joined before C
+        String result = db.transact("select * from A, C, B where x < 2");
+        assertEquals("k int,m int,x int,y string\n"
+                + "0,1,0,'one'\n0,0,0,'zero'\n1,1,1,'one'\n1,0,1,'zero'", result);
+    }
+
+    @Test
+    public void testColumnStats() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, s string)");
+        db.transact("insert into T1 values 3, NOVALUE");
+        db.transact("insert into T1 values NaN, 'b'");
+        db.transact("insert into T1 values 1, 'a'");
+        assertEquals("column string,type string,values int,novalue int,nan int,distinct int,"
+                + "min string,max string,histogram string\n"
+                + "'x','int',2,0,1,2,'1','3','1|3'\n"
+                + "'s','string',2,1,0,2,'a','b','a|b'", db.transact("stats T1"));
+        assertEquals("ERROR: No such table T2", db.transact("stats T2"));
+
+        db.transact("create table T2 as select x from T1 where x > 1");
+        db.transact("insert into T2 values 3");
+        assertEquals("'x','int',2,0,1,1,'3','3','3|3'",
+                db.transact("stats T2").split("\n")[1]);
+
+        //0/0 is a NaN float value, which isn't ordered with the others
+        db.transact("create table T3 (x float, y float)");
+        db.transact("insert into T3 values 0.0, 0.0");
+        db.transact("insert into T3 values 100.0, 1.0");
+        db.transact("insert into T3 values 50.0, 1.0");
+        db.transact("create table T4 as select x / y as z from T3");
+        assertEquals("'z','float',3,0,0,3,'50.000','100.000','50.000|100.000'",
+                db.transact("stats T4").split("\n")[1]);
+    }
+
+    @Test
+    public void testZoneMaps() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y string)");
+        for (int i = 0; i < 5000; i++) {
+            String x = i == 10 ? "NaN" : i == 4998 ? "NOVALUE" : Integer.toString(i);
+            db.transact("insert into T1 values " + x + ", 'r" + (i / 1000) + "'");
+        }
+        assertEquals("x int\nNaN\n4996\n4997\n4999",
+                db.transact("select x from T1 where x > 4995"));
+        assertEquals("x int\nNaN\n2500", db.transact("select x from T1 where x == 2500"));
+        assertEquals("x int,y string\n4000,'r4'",
+                db.transact("select x, y from T1 where y >= 'r4' and x <= 4000"));
+        assertEquals("ERROR: Incomparable int>string",
+                db.transact("select x from T1 where x > 'r4'"));
+
+        //0/0 is a NaN float value, which doesn't bound its block
+        db.transact("create table T2 (x float, y float)");
+        db.transact("insert into T2 values 0.0, 0.0");
+        for (int i = 0; i < 5; i++) {
+            db.transact("insert into T2 values 100.0, 1.0");
+        }
+        db.transact("create table T3 as select x / y as z from T2");
+        assertEquals("z float\n100.000\n100.000\n100.000\n100.000\n100.000",
+                db.transact("select z from T3 where z > 5.0"));
+    }
+
+    @Test
+    public void testDictionaryStrings() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y string)");
+        db.transact("insert into T1 values 1, 'b'");
+        db.transact("insert into T1 values 2, NaN");
+        db.transact("insert into T1 values 3, 'a'");
+        db.transact("insert into T1 values 4, NOVALUE");
+        db.transact("insert into T1 values 5, 'b'");
+        assertEquals("x int,y string\n1,'b'\n2,NaN\n5,'b'",
+                db.transact("select x, y from T1 where y == 'b'"));
+        assertEquals("y string\nNaN", db.transact("select y from T1 where y == 'c'"));
+        assertEquals("y string\nNaN\n'a'", db.transact("select y from T1 where y != 'b'"));
+        assertEquals("y string\nNaN\n'a'", db.transact("select y from T1 where y < 'b'"));
+
+        db.transact("create table T2 as select x, y from T1 where x > 2");
+        db.transact("insert into T2 values 6, 'c'");
+        assertEquals("x int,y string\n3,'a'\n4,NOVALUE\n5,'b'\n6,'c'", db.transact("print T2"));
+        assertEquals("y string\n'c'", db.transact("select y from T2 where y > 'b'"));
+        assertEquals("y string\nNaN", db.transact("select y from T1 where y == 'c'"));
+    }
+
+    @Test
+    public void testExplainAnalyze() throws Exception {
+        Database db = new Database();
+        db.transact("load fans");
+        String[] lines = db.transact(
+                "explain analyze select * from fans where Lastname >= 'Lee'").split("\n");
+        assertEquals("operator string,rows_in int,rows_out int,time_ms float,allocated_kb int",
+                lines[0]);
+        assertTrue(lines[1].startsWith("'render',4,4,"));
+        assertTrue(lines[2].startsWith("'  project',4,4,"));
+        assertTrue(lines[3].startsWith("'    filter fans where Lastname >= 'Lee'',6,4,"));
+        assertTrue(lines[4].startsWith("'      scan fans',6,6,"));
+        assertEquals(5, lines.length);
+
+        QueryMetricsMBean metrics = db.getMetrics();
+        assertEquals(2, metrics.getQueryCount());
+        long bucketed = 0;
+        for (long count : metrics.getLatencyBucketCounts()) {
+            bucketed += count;
+        }
+        assertEquals(2, bucketed);
+
+        db.registerMBean("explain");
+        ObjectName name = new ObjectName("db:type=Database,name=\"explain\"");
+        assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+                "QueryCount"));
+        db.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testResultCache() {
+        Database db = new Database();
+        db.transact("create table T1 (x int)");
+        db.transact("insert into T1 values 1");
+        assertEquals("x int\n1", db.transact("select x from T1 where x > 0"));
+        assertEquals("x int\n1", db.transact("select  x from T1   where x > 0"));
+        db.transact("insert into T1 values 2");
+        assertEquals("x int\n1\n2", db.transact("select x from T1 where x > 0"));
+
+        PreparedStatement select = db.prepare("select x from T1 where x > ?");
+        select.setInt(1, 1);
+        assertEquals("x int\n2", select.execute());
+        select.setInt(1, 0);
+        assertEquals("x int\n1\n2", select.execute());
+
+        db.transact("drop table T1");
+        assertEquals("ERROR: No such table T1", db.transact("select x from T1 where x > 0"));
+        db.transact("create table T1 (x int)");
+        assertEquals("x int", db.transact("select x from T1 where x > 0"));
+        db.transact("create table T2 as select x from T1");
+        db.transact("insert into T1 values 3");
+        assertEquals("x int", db.transact("select * from T2"));
+        assertEquals("x int\n3", db.transact("select * from T1"));
+    }
+
+    @Test
+    public void testMaterializedView() throws Exception {
+        File log = File.createTempFile("database", ".wal");
+        log.deleteOnExit();
+        Database db = new Database(log.getPath(), SyncPolicy.NONE);
+        db.transact("create table A (k int, x int)");
+        db.transact("create table B (k int, y string)");
+        db.transact("insert into A values 1, 10");
+        db.transact("insert into B values 1, 'one'");
+        assertEquals("", db.transact(
+                "create materialized view V as select k, x, y from A, B where x > 5"));
+        db.transact("insert into A values 1, 3");
+        db.transact("insert into A values 2, 20");
+        db.transact("insert into B values 2, 'two'");
+        assertEquals("k int,x int,y string\n1,10,'one'\n2,20,'two'", db.transact("print V"));
+
+        assertEquals("ERROR: Cannot insert into materialized view V",
+                db.transact("insert into V values 3, 30, 'three'"));
+        assertEquals("ERROR: Table A is used by materialized view V", db.transact("drop table A"));
+        assertEquals("ERROR: Materialized view reads A more than once",
+                db.transact("create materialized view W as select * from A, A"));
+        db.close();
+
+        db = new Database(log.getPath(), SyncPolicy.NONE);
+        db.transact("insert into B values 1, 'uno'");
+        assertEquals("k int,x int,y string\n1,10,'one'\n2,20,'two'\n1,10,'uno'",
+                db.transact("print V"));
+        db.close();
+    }
+
+    @Test
+    public void testIndex() {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y string)");
+        db.transact("insert into T1 values 3, 'a'");
+        db.transact("insert into T1 values NaN, 'b'");
+        assertEquals("", db.transact("create index on T1 (y)"));
+        assertEquals("", db.transact("create ordered index on T1 (x)"));
+        db.transact("insert into T1 values 1, 'a'");
+        db.transact("insert into T1 values NOVALUE, 'c'");
+
+        assertEquals("x int,y string\n3,'a'\n1,'a'",
+                db.transact("select * from T1 where y == 'a'"));
+        assertEquals("x int,y string\nNaN,'b'\n1,'a'",
+                db.transact("select * from T1 where x < 3"));
+        assertEquals("ERROR: Index already exists on T1 (x)",
+                db.transact("create hash index on T1 (x)"));
+        assertEquals("", db.transact("drop index on T1 (x)"));
+        assertEquals("ERROR: No index on T1 (x)", db.transact("drop index on T1 (x)"));
+    }
+
+    @Test
+    public void testBinaryStoreLoad() {
+        Database db = new Database();
+        db.transact("load fans");
+        String expected = db.transact("print fans");
+        assertEquals("", db.transact("store binary fans"));
+        db.transact("drop table fans");
+        assertEquals("", db.transact("load binary fans"));
+        assertEquals(expected, db.transact("print fans"));
+        assertEquals("ERROR: Cannot open file badTable.tbin", db.transact("load binary badTable"));
+    }
+
+    @Test
+    public void testConcurrentTransactions() throws Exception {
+        Database db = new Database();
+        db.transact("create table T1 (x int, y int)");
+        for (int i = 0; i < 1000; i++) {
+            db.transact("insert into T1 values " + i + ", " + (i % 10));
+        }
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> results = new ArrayList<>();
+        results.add(pool.submit(() -> {
+            for (int i = 1000; i < 2000; i++) {
+                assertEquals("", db.transact("insert into T1 values " + i + ", " + (i % 10)));
+            }
+        }));
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String rows = db.transact("select x,y from T1 where y == 3");
+                    assertTrue(rows.startsWith("x int,y int\n3,3\n13,3"));
+                }
+            }));
+        }
+        for (Future<?> f : results) {
+            f.get();
+        }
+        pool.shutdown();
+        assertEquals(201, db.transact("select x,y from T1 where y == 0").split("\n").length);
+    }
+
+    @Test
+    public void testCartesianProductTooLarge() {
+        Database db = new Database();
+        db.transact("create table A (x int)");
+        db.transact("create table B (y int)");
+        for (int i = 0; i < 65536; i++) {
+            db.transact("insert into A values " + i);
+            db.transact("insert into B values " + i);
+        }
+        //2^32 rows, which wrapped around to none
+        assertEquals("ERROR: Cartesian product of 65536 and 65536 rows is too large",
+                db.transact("select x,y from A,B"));
+    }
+
+    @Test
+    public void testSnapshotCopies() {
+        Database db = new Database();
+        db.transact("create table T1 (x int)");
+        db.transact("insert into T1 values 1");
+        assertEquals("", db.transact("create table T2 as select * from T1"));
+        db.transact("insert into T1 values 2");
+        db.transact("insert into T2 values 3");
+        assertEquals("x int\n1\n2", db.transact("print T1"));
+        assertEquals("x int\n1\n3", db.transact("print T2"));
+    }
+
+    @Test
+    public void testWriteAheadLog() throws Exception {
+        File log = File.createTempFile("database", ".wal");
+        log.deleteOnExit();
+        Database db = new Database(log.getPath(), SyncPolicy.ALWAYS);
+        db.transact("create table T1 (x int, y string)");
+        db.transact("insert into T1 values 1, 'a,b'");
+        db.transact("insert into T1 values NOVALUE, 'c'");
+        db.transact("create table T2 as select x from T1");
+        db.transact("create table T3 (z float)");
+        db.transact("drop table T3");
+        db.close();
+
+        //a record torn by a crash is dropped on replay
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2});
+        }
+        db = new Database(log.getPath(), SyncPolicy.GROUP);
+        assertEquals("x int,y string\n1,'a,b'\nNOVALUE,'c'", db.transact("print T1"));
+        assertEquals("x int\n1\nNOVALUE", db.transact("print T2"));
+        assertEquals("ERROR: No such table T3", db.transact("print T3"));
+        db.transact("insert into T2 values 5");
+        db.close();
+
+        db = new Database(log.getPath(), SyncPolicy.NONE);
+        assertEquals("x int\n1\nNOVALUE\n5", db.transact("print T2"));
+        db.close();
+        deleteImages(log);
+    }
+
+    @Test
+    public void testWriteAheadLogLoad() throws Exception {
+        File log = File.createTempFile("database", ".wal");
+        log.deleteOnExit();
+        File file = new File("WalLoad.tbl");
+        File images = new File(log.getPath() + ".images");
+        try {
+            Files.write(file.toPath(), "x int\n1\n".getBytes());
+            Database db = new Database(log.getPath(), SyncPolicy.ALWAYS);
+            db.transact("load WalLoad");
+            db.transact("insert into WalLoad values 2");
+            db.transact("store WalLoad");
+            assertEquals("ERROR: Cannot open file Missing.tbl", db.transact("load Missing"));
+            db.close();
+
+            //the loaded rows are kept in an image the log names
+            assertEquals(1, images.list().length);
+            Files.write(new File(images, "7.tbin").toPath(), new byte[]{1});
+
+            //replay uses the rows loaded, not the file as it is now
+            db = new Database(log.getPath(), SyncPolicy.ALWAYS);
+            assertEquals("x int\n1\n2", db.transact("print WalLoad"));
+            db.close();
+            assertEquals(1, images.list().length);
+        } finally {
+            file.delete();
+            deleteImages(log);
+        }
+    }
+
+    /**
+     * Deletes the table images kept next to log.
+     */
+    private static void deleteImages(File log) {
+        File images = new File(log.getPath() + ".images");
+        File[] files = images.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        images.delete();
+    }
+
+    @Test
+    public void testWriteAheadLogReplayError() throws Exception {
+        File log = File.createTempFile("database", ".wal");
+        log.deleteOnExit();
+        Database db = new Database(log.getPath(), SyncPolicy.ALWAYS);
+        db.transact("create table T1 (x int)");
+        db.close();
+
+        //a log creating T1 twice can't be replayed
+        byte[] record = Files.readAllBytes(log.toPath());
+        Files.write(log.toPath(), record, StandardOpenOption.APPEND);
+        try {
+            new Database(log.getPath(), SyncPolicy.ALWAYS);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("T1 already exists"));
+        }
+        assertEquals(2 * record.length, log.length());
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        File log = File.createTempFile("database", ".wal");
+        log.deleteOnExit();
+        Database db = new Database(log.getPath(), SyncPolicy.GROUP);
+        db.transact("create table T1 (x int, y string)");
+        for (int i = 0; i < 100; i++) {
+            db.transact("insert into T1 values " + i + ", 'v'");
+        }
+        db.transact("create table T2 as select x from T1 where x < 2");
+        db.transact("create materialized view V as select x, y from T1 where x > 97");
+        long size = log.length();
+        db.checkpoint();
+        assertTrue(log.length() < size);
+
+        //changes after the checkpoint are replayed on top of it
+        db.transact("insert into T1 values 100, 'w'");
+        db.transact("drop table T2");
+        db.close();
+        db = new Database(log.getPath(), SyncPolicy.ALWAYS);
+        assertEquals("x int,y string\n98,'v'\n99,'v'\n100,'w'", db.transact("print V"));
+        assertEquals("ERROR: No such table T2", db.transact("print T2"));
+        db.transact("insert into T1 values 101, 'z'");
+        assertEquals("x int\n98\n99\n100\n101", db.transact("select x from V"));
+        assertEquals(102, db.transact("select x from T1").split("\n").length - 1);
+        db.close();
+        deleteImages(log);
+    }
+
+    @Test
+    public void testQueryServer() throws Exception {
+        Database db = new Database();
+        try (QueryServer server = new QueryServer(db, 0, 2);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            //queries sent together are answered in order
+            OutputStream out = socket.getOutputStream();
+            out.write(("create table T1 (x int)\ninsert into T1 values 1\n"
+                    + "insert into T1 values 2\nprint T1\nprint T2\nexit\n").getBytes());
+            out.flush();
+            StringBuilder answers = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                answers.append(line).append('\n');
+            }
+            assertEquals("\nOK 0\n\nOK 0\n\nOK 0\nx int\n1\n2\n\nOK 3\n"
+                    + "ERROR: No such table T2\n\nERROR 1\n", answers.toString());
+        }
+        assertEquals("x int\n1\n2", db.transact("print T1"));
+    }
+
     @Test
     public void testQuerySuiteOne() {
 
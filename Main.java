@@ -1,16 +1,43 @@
 import db.Database;
+import db.QueryServer;
+import db.SyncPolicy;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 
 public class Main {
     private static final String EXIT   = "exit";
     private static final String PROMPT = "> ";
+    private static final String PORT   = "--port";
+    private static final String USAGE  = "usage: Main [--port port] [log]";
 
     public static void main(String[] args) throws IOException {
+        //--port serves the database to clients on that port instead of reading stdin
+        int port = -1;
+        if (args.length > 0 && PORT.equals(args[0])) {
+            port = args.length > 1 ? parsePort(args[1]) : -1;
+            if (port < 0) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        //an optional argument names a write-ahead log to open the database from
+        Database db = args.length > 0 ? new Database(args[0], SyncPolicy.GROUP) : new Database();
+        if (port >= 0) {
+            serve(db, port);
+            return;
+        }
+
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Database db = new Database();
-        System.out.print(PROMPT);
+        //results are streamed to out rather than built as one string
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        out.write(PROMPT);
+        out.flush();
 
         String query;
         while ((query = in.readLine()) != null) {
@@ -19,13 +46,46 @@ public class Main {
             }
 
             if (!query.trim().isEmpty()) {
-                String result = db.transact(query);
-                if (result.length() > 0) {
-                    System.out.println(result);
+                if (db.transact(query, out)) {
+                    out.write(System.lineSeparator());
                 }
             }
-            System.out.print(PROMPT);
+            out.write(PROMPT);
+            out.flush();
         }
         in.close();
+        db.close();
+    }
+
+    /**
+     * Returns the port number s, or -1 if it isn't one.
+     */
+    private static int parsePort(String s) {
+        try {
+            int port = Integer.parseInt(s);
+            return port <= 65535 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void serve(Database db, int port) throws IOException {
+        QueryServer server = new QueryServer(db, port,
+                Runtime.getRuntime().availableProcessors());
+        //closing on shutdown lets the log sync what it has buffered
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                db.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }));
+        System.out.println("Listening on port " + server.getPort());
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
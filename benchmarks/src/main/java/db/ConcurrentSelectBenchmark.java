@@ -0,0 +1,49 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database.transact of a select on one shared database, in selects
+ * per second across all threads. The threads default to one per
+ * processor, -t picks another number. The table isn't changed, so
+ * after the first select the result comes from the result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ConcurrentSelectBenchmark {
+
+    private static final int ROWS = 2000;
+
+    private Database db;
+
+    @Setup
+    public void setup() {
+        db = new Database();
+        db.transact("create table T1 (x int, y int)");
+        for (int i = 0; i < ROWS; i++) {
+            db.transact("insert into T1 values " + i + ", " + (i % 10));
+        }
+    }
+
+    @Benchmark
+    public String select() {
+        return db.transact("select x from T1 where x > 1500");
+    }
+}
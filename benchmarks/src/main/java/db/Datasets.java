@@ -0,0 +1,79 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated tables for the benchmarks. Values come from a Random with
+ * a fixed seed, so every run of a benchmark sees the same rows.
+ */
+final class Datasets {
+
+    // Number of distinct strings in the s column.
+    private static final int STRINGS = 1000;
+
+    private Datasets() {
+    }
+
+    /**
+     * Returns a table of rows rows with columns x int, f float and
+     * s string. x is spread uniformly over 0 to rows - 1, or counts up
+     * from 0 if clustered, which is the order zone maps skip best.
+     */
+    static Table numbers(String name, int rows, boolean clustered) {
+        Random random = new Random(rows);
+        int[] x = new int[rows];
+        double[] f = new double[rows];
+        String[] s = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            x[i] = clustered ? i : random.nextInt(rows);
+            f[i] = random.nextInt(1000000) / 1000.0;
+            s[i] = "'s" + random.nextInt(STRINGS) + "'";
+        }
+        return table(name, new String[]{"x", "f", "s"}, new String[]{"int", "float", "string"},
+                new Column[]{new IntColumn(x, null), new FloatColumn(f, null),
+                        new StringColumn(s, null)});
+    }
+
+    /**
+     * Returns a table of rows rows that joins with the tables of other
+     * names on its first shared columns k0, k1 and so on, followed by
+     * the int column value. Every key column of a row holds the same
+     * key, drawn from 0 to rows - 1, so two such tables of the same
+     * size join to about rows rows whatever the number of keys.
+     */
+    static Table keyed(String name, int rows, int shared, String value) {
+        Random random = new Random(name.hashCode() * 31L + rows);
+        int[] keys = new int[rows];
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            keys[i] = random.nextInt(rows);
+            values[i] = i;
+        }
+        String[] names = new String[shared + 1];
+        String[] types = new String[shared + 1];
+        Column[] cols = new Column[shared + 1];
+        for (int k = 0; k < shared; k++) {
+            names[k] = "k" + k;
+            types[k] = "int";
+            cols[k] = new IntColumn(keys, null);
+        }
+        names[shared] = value;
+        types[shared] = "int";
+        cols[shared] = new IntColumn(values, null);
+        return table(name, names, types, cols);
+    }
+
+    /**
+     * Builds a table of the full columns cols, keeping statistics and
+     * zone maps as tables added to a database do.
+     */
+    private static Table table(String name, String[] names, String[] types, Column[] cols) {
+        Table t = new Table(name, new ArrayList<>(Arrays.asList(names)),
+                new ArrayList<>(Arrays.asList(types)));
+        t.appendRows(cols, cols[0].size());
+        t.collectStats();
+        return t;
+    }
+}
@@ -0,0 +1,89 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Element.arithmetic on pairs of values of one kind, per pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"int", "float", "string", "mixed"})
+    public String kind;
+
+    @Param({"+", "/"})
+    public String operator;
+
+    private Element[] left;
+    private Element[] right;
+    private int op;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(PAIRS);
+        left = new Element[PAIRS];
+        right = new Element[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            left[i] = element(random, i);
+            right[i] = element(random, i + 1);
+        }
+        //strings can only be added
+        op = kind.equals("string") || operator.equals("+") ? Element.ADD : Element.DIV;
+    }
+
+    /**
+     * Returns a value of kind, mixed ones cycling through int, float,
+     * NaN and NOVALUE by i.
+     */
+    private Element element(Random random, int i) {
+        switch (kind) {
+            case "int":
+                return Element.ofInt(random.nextInt(1000));
+            case "float":
+                return Element.ofFloat(random.nextInt(1000000) / 1000.0);
+            case "string":
+                return Element.ofString("'s" + random.nextInt(1000) + "'");
+            default:
+                switch (i % 4) {
+                    case 0:
+                        return Element.ofInt(random.nextInt(1000));
+                    case 1:
+                        return Element.ofFloat(random.nextInt(1000000) / 1000.0);
+                    case 2:
+                        return Element.nan();
+                    default:
+                        return Element.novalue();
+                }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void arithmetic(Blackhole bh) throws ParsingException {
+        for (int i = 0; i < PAIRS; i++) {
+            bh.consume(Element.arithmetic(left[i], right[i], op));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JoinParser.join of two tables of rows rows that share shared key
+ * columns, joining to about rows rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JoinBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"1", "2"})
+    public int shared;
+
+    private Table left;
+    private Table right;
+
+    @Setup
+    public void setup() {
+        left = Datasets.keyed("L", rows, shared, "a");
+        right = Datasets.keyed("R", rows, shared, "b");
+    }
+
+    @Benchmark
+    public int join() throws ParsingException {
+        RowSet[] from = {new RowSet(left), new RowSet(right)};
+        return JoinParser.join(from, new int[]{0, 1}).getNumRows();
+    }
+}
@@ -0,0 +1,84 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Loading and storing a table of rows rows in the text .tbl format
+ * and the binary format, through files in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadStoreBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private Path dir;
+    private Table table;
+    private Database db;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("benchmark");
+        table = Datasets.numbers("T", rows, false);
+        db = new Database();
+        storeText();
+        storeBinary();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public void storeText() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("T.tbl"),
+                StandardCharsets.UTF_8)) {
+            table.writeTo(writer);
+        }
+    }
+
+    @Benchmark
+    public void storeBinary() throws IOException {
+        TableFile.write(table, dir.resolve("T" + TableFile.EXTENSION).toString());
+    }
+
+    @Benchmark
+    public boolean loadText() throws IOException, ParsingException {
+        return TableLoader.load(db, "T", dir.resolve("T.tbl").toString());
+    }
+
+    @Benchmark
+    public int loadBinary() throws IOException {
+        return TableFile.read("T", dir.resolve("T" + TableFile.EXTENSION).toString()).getNumRows();
+    }
+}
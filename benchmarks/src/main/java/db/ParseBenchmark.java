@@ -0,0 +1,49 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of getting from query text to a statement: parsing alone,
+ * and transact on an empty table, where the work left is looking the
+ * query up in the plan and result caches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final String QUERY =
+            "select  x, f * 2 as g, s from   T where x > 10 and s != 's1'";
+
+    private Database db;
+
+    @Setup
+    public void setup() {
+        db = new Database();
+        db.transact("create table T (x int, f float, s string)");
+    }
+
+    @Benchmark
+    public Object parse() {
+        return new StatementParser(Parser.normalize(QUERY.trim())).parse();
+    }
+
+    @Benchmark
+    public String transact() {
+        return db.transact(QUERY);
+    }
+}
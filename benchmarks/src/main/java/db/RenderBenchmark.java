@@ -0,0 +1,77 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a table of rows rows as text, into one string with
+ * toString and streamed with writeTo to an Appendable that only
+ * counts what it is given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private Table table;
+
+    @Setup
+    public void setup() {
+        table = Datasets.numbers("T", rows, false);
+    }
+
+    @Benchmark
+    public int toText() {
+        return table.toString().length();
+    }
+
+    @Benchmark
+    public long writeTo() throws IOException {
+        CountingAppendable out = new CountingAppendable();
+        table.writeTo(out);
+        return out.count;
+    }
+
+    /**
+     * Counts the chars appended to it and drops them.
+     */
+    private static class CountingAppendable implements Appendable {
+        long count;
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            count += csq.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            count += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            count++;
+            return this;
+        }
+    }
+}
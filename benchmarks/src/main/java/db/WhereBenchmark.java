@@ -0,0 +1,59 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExpressionParser.evaluateWhere of x < literal over rows rows, with
+ * the literal chosen so about selectivity of the rows match. With
+ * clustered rows the zone maps skip most blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WhereBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"0.001", "0.01", "0.1", "0.5", "0.9"})
+    public double selectivity;
+
+    @Param({"false", "true"})
+    public boolean clustered;
+
+    private Table table;
+    private Condition intCondition;
+    private Condition stringCondition;
+
+    @Setup
+    public void setup() {
+        table = Datasets.numbers("T", rows, clustered);
+        intCondition = new Condition("x", "<", Integer.toString((int) (rows * selectivity)));
+        stringCondition = new Condition("s", "<", "'s" + (int) (1000 * selectivity) + "'");
+    }
+
+    @Benchmark
+    public int whereInt() throws ParsingException {
+        return ExpressionParser.evaluateWhere(new RowSet(table), intCondition).getNumRows();
+    }
+
+    @Benchmark
+    public int whereString() throws ParsingException {
+        return ExpressionParser.evaluateWhere(new RowSet(table), stringCondition).getNumRows();
+    }
+}
@@ -0,0 +1,248 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Column stores the values of a single table column. Subclasses keep
+ * their values in primitive arrays, NaN and NOVALUE cells are marked in
+ * a byte array that is only allocated once the first such cell shows up.
+ */
+abstract class Column implements Cloneable {
+
+    static final byte VALUE = 0, NOVALUE = 1, NAN = 2;
+
+    protected byte[] kinds;
+    protected int size;
+    //set on views, whose arrays belong to another column
+    protected boolean shared;
+
+    /**
+     * Returns an empty column able to hold values of type.
+     */
+    static Column forType(String type, int capacity) {
+        switch (type) {
+            case "int":
+                return new IntColumn(capacity);
+            case "float":
+                return new FloatColumn(capacity);
+            case "string":
+                return new StringColumn(capacity);
+            default:
+                return new GenericColumn(capacity);
+        }
+    }
+
+    /**
+     * Builds a column of type holding all of values.
+     */
+    static Column of(String type, ArrayList<Element> values) {
+        Column c = forType(type, values.size());
+        for (Element e : values) {
+            c = c.append(e);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the number of values in the column.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends e to the column. Returns the column now holding the
+     * values, which is a generic copy if e does not fit this column.
+     */
+    Column append(Element e) {
+        if (shared) {
+            return copy(size).append(e);
+        }
+        byte kind = kindOf(e);
+        if (kind == VALUE && !accepts(e)) {
+            return promote().append(e);
+        }
+        grow(size + 1);
+        if (kind == VALUE) {
+            set(size, e);
+        } else {
+            markKind(size, kind);
+        }
+        size++;
+        return this;
+    }
+
+    /**
+     * Returns the element stored at row.
+     */
+    Element get(int row) {
+        if (kinds != null) {
+            if (kinds[row] == NOVALUE) {
+                return Element.novalue();
+            } else if (kinds[row] == NAN) {
+                return Element.nan();
+            }
+        }
+        return getValue(row);
+    }
+
+    /**
+     * Returns a new column holding the values at rows[0..n).
+     */
+    Column gather(int[] rows, int n) {
+        Column c = emptyCopy(n);
+        c.grow(n);
+        for (int i = 0; i < n; i++) {
+            c.copyValue(i, this, rows[i]);
+        }
+        if (kinds != null) {
+            for (int i = 0; i < n; i++) {
+                if (kinds[rows[i]] != VALUE) {
+                    c.markKind(i, kinds[rows[i]]);
+                }
+            }
+        }
+        c.size = n;
+        return c;
+    }
+
+    /**
+     * Returns a column holding the first n values that shares this
+     * column's arrays. Values are only ever written past the end of a
+     * column, so the view doesn't change as values are appended here.
+     * Appending to the view copies the values first.
+     */
+    Column view(int n) {
+        try {
+            Column c = (Column) clone();
+            c.size = n;
+            c.shared = true;
+            return c;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a new column holding the first n values.
+     */
+    Column copy(int n) {
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        return gather(rows, n);
+    }
+
+    /**
+     * Appends the string representation of the value at row to sb.
+     */
+    void appendTo(StringBuilder sb, int row) {
+        if (kinds != null && kinds[row] != VALUE) {
+            sb.append(kinds[row] == NAN ? "NaN" : "NOVALUE");
+        } else {
+            appendValue(sb, row);
+        }
+    }
+
+    /**
+     * Returns the rows from from to to (exclusive), or the rows at those
+     * positions of candidates if it isn't null, whose value satisfies the
+     * comparison op with literal. Returns null if this column can't
+     * evaluate the comparison directly and the caller has to compare
+     * elements.
+     */
+    int[] select(int op, Element literal, int[] candidates, int from, int to) {
+        return null;
+    }
+
+    /**
+     * Returns the kind of cell e is stored as.
+     */
+    static byte kindOf(Element e) {
+        switch (e.type()) {
+            case NOVALUE:
+                return NOVALUE;
+            case NAN:
+                return NAN;
+            default:
+                return VALUE;
+        }
+    }
+
+    /**
+     * Returns true if any cell may be NaN or NOVALUE.
+     */
+    boolean hasKinds() {
+        return kinds != null;
+    }
+
+    /**
+     * Returns the kinds of the cells, or null if every cell holds a
+     * value.
+     */
+    byte[] getKinds() {
+        return kinds;
+    }
+
+    /**
+     * Returns the kind of the cell at row.
+     */
+    byte kindAt(int row) {
+        return kinds == null ? VALUE : kinds[row];
+    }
+
+    /**
+     * Marks the cell at row as NaN or NOVALUE.
+     */
+    void markKind(int row, byte kind) {
+        if (kinds == null) {
+            kinds = new byte[capacity()];
+        }
+        kinds[row] = kind;
+    }
+
+    /**
+     * Grows the kinds array along with the value array.
+     */
+    void growKinds(int capacity) {
+        if (kinds != null && kinds.length < capacity) {
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+    }
+
+    /**
+     * Returns a new capacity that holds at least needed values.
+     */
+    static int newCapacity(int current, int needed) {
+        return Math.max(needed, Math.max(16, current + (current >> 1)));
+    }
+
+    /**
+     * Copies this column into a generic column that holds any element.
+     */
+    private Column promote() {
+        GenericColumn c = new GenericColumn(size + 1);
+        for (int i = 0; i < size; i++) {
+            c.append(get(i));
+        }
+        return c;
+    }
+
+    abstract boolean accepts(Element e);
+
+    abstract Element getValue(int row);
+
+    abstract void set(int row, Element e);
+
+    abstract void copyValue(int row, Column src, int srcRow);
+
+    abstract void appendValue(StringBuilder sb, int row);
+
+    abstract Column emptyCopy(int capacity);
+
+    abstract int capacity();
+
+    abstract void grow(int capacity);
+}
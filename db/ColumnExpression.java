@@ -0,0 +1,79 @@
+package db;
+
+/**
+ * A single column expression of a select, either the name of a
+ * column to copy or left operator right as alias.
+ */
+class ColumnExpression {
+
+    private final String name;
+    private final String left;
+    private final int operator;
+    private final String right;
+    private final String error;
+
+    /**
+     * Constructs an expression that copies the column name.
+     */
+    ColumnExpression(String name) {
+        this(name, null, -1, null, null);
+    }
+
+    /**
+     * Constructs the expression left operator right as alias, operator
+     * being one of the arithmetic codes of Element.
+     */
+    ColumnExpression(String alias, String left, int operator, String right) {
+        this(alias, left, operator, right, null);
+    }
+
+    private ColumnExpression(String name, String left, int operator, String right, String error) {
+        this.name = name;
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+        this.error = error;
+    }
+
+    /**
+     * Returns an expression that fails with error once it is evaluated.
+     */
+    static ColumnExpression invalid(String alias, String error) {
+        return new ColumnExpression(alias, null, -1, null, error);
+    }
+
+    /**
+     * Throws the parse error of a malformed expression.
+     */
+    void check() throws ParsingException {
+        if (error != null) {
+            throw new ParsingException(error);
+        }
+    }
+
+    /**
+     * Returns true if the expression copies a column unchanged.
+     */
+    boolean isColumn() {
+        return left == null && error == null;
+    }
+
+    /**
+     * Returns the name of the column the expression produces.
+     */
+    String getName() {
+        return name;
+    }
+
+    String getLeft() {
+        return left;
+    }
+
+    int getOperator() {
+        return operator;
+    }
+
+    String getRight() {
+        return right;
+    }
+}
@@ -0,0 +1,333 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Statistics of one column of a table: the number of values, NOVALUE
+ * and NaN cells, the smallest and largest value and the approximate
+ * number of distinct values. They are kept up to date as rows are
+ * added, and may be read while that happens. Histograms are built on
+ * demand from the column itself.
+ */
+class ColumnStats {
+
+    static final int HISTOGRAM_BUCKETS = 8;
+
+    private final boolean strings;
+    private int values;
+    private int novalues;
+    private int nans;
+    private Element min;
+    private Element max;
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    /**
+     * Constructs the statistics of an empty column of type.
+     */
+    ColumnStats(String type) {
+        this.strings = type.equals("string");
+    }
+
+    /**
+     * Adds the value e of a new row.
+     */
+    synchronized void add(Element e) {
+        switch (e.type()) {
+            case NAN:
+                nans++;
+                break;
+            case NOVALUE:
+                novalues++;
+                break;
+            case INT:
+                addValue(e.intValue(), e);
+                break;
+            case FLOAT:
+                addValue(Double.doubleToLongBits(e.floatValue()), e);
+                break;
+            default:
+                addValue(e.stringValue().hashCode(), e);
+                break;
+        }
+    }
+
+    /**
+     * Adds the values of c from row from to row to (exclusive).
+     */
+    synchronized void addAll(Column c, int from, int to) {
+        byte[] kinds = c.getKinds();
+        if (c instanceof IntColumn && !strings) {
+            int[] ints = ((IntColumn) c).getInts();
+            int count = 0;
+            int lo = 0;
+            int hi = 0;
+            for (int i = from; i < to; i++) {
+                if (kinds == null || kinds[i] == Column.VALUE) {
+                    int v = ints[i];
+                    lo = count == 0 || v < lo ? v : lo;
+                    hi = count == 0 || v > hi ? v : hi;
+                    count++;
+                    distinct.add(v);
+                } else {
+                    addKind(kinds[i]);
+                }
+            }
+            values += count;
+            if (count > 0) {
+                addRange(Element.ofInt(lo), Element.ofInt(hi));
+            }
+        } else if (c instanceof FloatColumn && !strings) {
+            double[] floats = ((FloatColumn) c).getFloats();
+            int count = 0;
+            int ranged = 0;
+            double lo = 0;
+            double hi = 0;
+            for (int i = from; i < to; i++) {
+                if (kinds == null || kinds[i] == Column.VALUE) {
+                    double v = floats[i];
+                    //a computed NaN is left out of the range like NaN cells are
+                    if (!Double.isNaN(v)) {
+                        lo = ranged == 0 || v < lo ? v : lo;
+                        hi = ranged == 0 || v > hi ? v : hi;
+                        ranged++;
+                    }
+                    count++;
+                    distinct.add(Double.doubleToLongBits(v));
+                } else {
+                    addKind(kinds[i]);
+                }
+            }
+            values += count;
+            if (ranged > 0) {
+                addRange(Element.ofFloat(lo), Element.ofFloat(hi));
+            }
+        } else if (c instanceof StringColumn && strings) {
+            StringColumn sc = (StringColumn) c;
+            for (int i = from; i < to; i++) {
+                if (kinds == null || kinds[i] == Column.VALUE) {
+                    String v = sc.getString(i);
+                    values++;
+                    distinct.add(v.hashCode());
+                    if (min == null || v.compareTo(min.stringValue()) < 0) {
+                        min = Element.ofString(v);
+                    }
+                    if (max == null || v.compareTo(max.stringValue()) > 0) {
+                        max = Element.ofString(v);
+                    }
+                } else {
+                    addKind(kinds[i]);
+                }
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                add(c.get(i));
+            }
+        }
+    }
+
+    /**
+     * Widens the range of values to lo to hi.
+     */
+    private void addRange(Element lo, Element hi) {
+        if (min == null || compareValues(lo, min) < 0) {
+            min = lo;
+        }
+        if (max == null || compareValues(hi, max) > 0) {
+            max = hi;
+        }
+    }
+
+    private void addKind(byte kind) {
+        if (kind == Column.NAN) {
+            nans++;
+        } else {
+            novalues++;
+        }
+    }
+
+    private void addValue(long hash, Element e) {
+        values++;
+        distinct.add(hash);
+        //computed columns may hold values of another type, which have no order with these
+        if ((e.type() == Type.STRING) == strings && !isNaNValue(e)) {
+            if (min == null || compareValues(e, min) < 0) {
+                min = e;
+            }
+            if (max == null || compareValues(e, max) > 0) {
+                max = e;
+            }
+        }
+    }
+
+    synchronized int getNumValues() {
+        return values;
+    }
+
+    synchronized int getNumNoValues() {
+        return novalues;
+    }
+
+    synchronized int getNumNaNs() {
+        return nans;
+    }
+
+    /**
+     * Returns the smallest value, or null if there is none.
+     */
+    synchronized Element getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value, or null if there is none.
+     */
+    synchronized Element getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the estimated number of distinct values, NaN and
+     * NOVALUE not counted.
+     */
+    synchronized int getDistinct() {
+        return (int) Math.min(values, Math.max(values > 0 ? 1 : 0, distinct.estimate()));
+    }
+
+    /**
+     * Returns the estimated fraction of rows that satisfy
+     * column op literal. NaN rows satisfy every comparison and
+     * NOVALUE rows none.
+     */
+    synchronized double selectivity(int op, Element literal) {
+        int rows = values + novalues + nans;
+        if (rows == 0) {
+            return 1.0;
+        }
+        double matching;
+        if (literal.type() == Type.NOVALUE) {
+            matching = 0.0;
+        } else if (op == Element.EQ) {
+            matching = values == 0 ? 0.0 : 1.0 / getDistinct();
+        } else if (op == Element.NE) {
+            matching = values == 0 ? 0.0 : 1.0 - 1.0 / getDistinct();
+        } else if (min != null && isNumber(literal) && isNumber(min)
+                && asDouble(max) > asDouble(min)) {
+            double below = (asDouble(literal) - asDouble(min)) / (asDouble(max) - asDouble(min));
+            below = Math.max(0.0, Math.min(1.0, below));
+            matching = op == Element.LT || op == Element.LE ? below : 1.0 - below;
+        } else {
+            matching = 1.0 / 3;
+        }
+        return (nans + values * matching) / rows;
+    }
+
+    /**
+     * Returns the upper bounds of up to buckets buckets that each hold
+     * about as many of the first n values of c, in ascending order.
+     * NaN and NOVALUE are left out.
+     */
+    static Element[] histogram(Column c, int n, int buckets) {
+        ArrayList<Element> sorted = new ArrayList<>(n);
+        boolean strings = false;
+        for (int i = 0; i < n; i++) {
+            Element e = c.get(i);
+            if (!e.type().isNull() && !isNaNValue(e)
+                    && (sorted.isEmpty() || (e.type() == Type.STRING) == strings)) {
+                strings = e.type() == Type.STRING;
+                sorted.add(e);
+            }
+        }
+        sorted.sort(ColumnStats::compareValues);
+        int count = Math.min(buckets, sorted.size());
+        Element[] bounds = new Element[count];
+        for (int b = 0; b < count; b++) {
+            bounds[b] = sorted.get((int) ((long) (b + 1) * sorted.size() / count) - 1);
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the statistics of the columns of t, one row per column.
+     */
+    static Table describe(Table t) {
+        ArrayList<String> names = new ArrayList<>(Arrays.asList("column", "type", "values",
+                "novalue", "nan", "distinct", "min", "max", "histogram"));
+        ArrayList<String> types = new ArrayList<>(Arrays.asList("string", "string", "int",
+                "int", "int", "int", "string", "string", "string"));
+        Table result = new Table(t.getName(), names, types);
+        for (int col = 0; col < t.getNumCols(); col++) {
+            ColumnStats stats = t.getStats(col);
+            if (stats == null) {
+                stats = new ColumnStats(t.getColumnTypes().get(col));
+                stats.addAll(t.getColumn(col), 0, t.getNumRows());
+            }
+            StringBuilder histogram = new StringBuilder();
+            for (Element bound : histogram(t.getColumn(col), t.getNumRows(), HISTOGRAM_BUCKETS)) {
+                histogram.append(histogram.length() == 0 ? "" : "|").append(text(bound));
+            }
+            Row r = new Row();
+            r.addElement(Element.ofString(quote(t.getColumnNames().get(col))));
+            r.addElement(Element.ofString(quote(t.getColumnTypes().get(col))));
+            r.addElement(Element.ofInt(stats.getNumValues()));
+            r.addElement(Element.ofInt(stats.getNumNoValues()));
+            r.addElement(Element.ofInt(stats.getNumNaNs()));
+            r.addElement(Element.ofInt(stats.getDistinct()));
+            r.addElement(stats.getMin() == null ? Element.novalue()
+                    : Element.ofString(quote(text(stats.getMin()))));
+            r.addElement(stats.getMax() == null ? Element.novalue()
+                    : Element.ofString(quote(text(stats.getMax()))));
+            r.addElement(Element.ofString(quote(histogram.toString())));
+            result.addRowToTable(r);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of e as it is printed, strings without
+     * their quotes.
+     */
+    private static String text(Element e) {
+        StringBuilder sb = new StringBuilder();
+        if (e.type() == Type.FLOAT) {
+            FloatColumn.appendFloat(sb, e.floatValue());
+        } else if (e.type() == Type.STRING) {
+            String s = e.stringValue();
+            boolean quoted = s.length() > 1 && s.startsWith("'") && s.endsWith("'");
+            sb.append(s, quoted ? 1 : 0, quoted ? s.length() - 1 : s.length());
+        } else {
+            sb.append(e.value());
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        return "'" + s + "'";
+    }
+
+    /**
+     * Orders two numbers, or two strings.
+     */
+    private static int compareValues(Element a, Element b) {
+        if (a.type() == Type.STRING) {
+            return a.stringValue().compareTo(b.stringValue());
+        }
+        return Double.compare(asDouble(a), asDouble(b));
+    }
+
+    /**
+     * Returns true if e is a float value holding a computed NaN, such
+     * as 0/0, which is left out of ranges like NaN cells are.
+     */
+    private static boolean isNaNValue(Element e) {
+        return e.type() == Type.FLOAT && Double.isNaN(e.floatValue());
+    }
+
+    private static boolean isNumber(Element e) {
+        return e.type() == Type.INT || e.type() == Type.FLOAT;
+    }
+
+    private static double asDouble(Element e) {
+        return e.type() == Type.INT ? e.intValue() : e.floatValue();
+    }
+}
@@ -0,0 +1,109 @@
+package db;
+
+/**
+ * A single where clause condition of the form
+ * left operator right, where right is a column, a literal
+ * or a ? parameter of a prepared statement.
+ */
+class Condition {
+
+    static final String PARAMETER = "?";
+
+    private final String left;
+    private final String operator;
+    private final String right;
+    private final String error;
+
+    Condition(String left, String operator, String right) {
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+        this.error = null;
+    }
+
+    /**
+     * Constructs a condition that could not be parsed, evaluating
+     * it fails with error.
+     */
+    private Condition(String text, String error) {
+        this.left = text;
+        this.operator = null;
+        this.right = null;
+        this.error = error;
+    }
+
+    /**
+     * Splits a condition such as x >= 2 into its operands and
+     * operator. A malformed condition is returned as well and only
+     * reports its error once it is evaluated.
+     */
+    static Condition parse(String cond) {
+        String operator;
+        if (cond.contains(">=") || cond.contains("=>")) {
+            operator = ">=";
+        } else if (cond.contains("<=") || cond.contains("=<")) {
+            operator = "<=";
+        } else if (cond.contains(">")) {
+            operator = ">";
+        } else if (cond.contains("<")) {
+            operator = "<";
+        } else if (cond.contains("==")) {
+            operator = "==";
+        } else if (cond.contains("!=")) {
+            operator = "!=";
+        } else {
+            return new Condition(cond, "ERROR: Invalid where clause " + cond);
+        }
+
+        String[] operands = cond.split(operator);
+        if (operands.length < 2) {
+            return new Condition(cond, "ERROR: Invalid where clause " + cond);
+        }
+        return new Condition(operands[0].trim(), operator, operands[1].trim());
+    }
+
+    /**
+     * Throws the parse error of a malformed condition.
+     */
+    void check() throws ParsingException {
+        if (error != null) {
+            throw new ParsingException(error);
+        }
+    }
+
+    boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * Returns true if the right operand is a ? parameter.
+     */
+    boolean isParameter() {
+        return PARAMETER.equals(right);
+    }
+
+    /**
+     * Returns this condition with its right operand replaced by
+     * the literal value.
+     */
+    Condition bind(String value) {
+        return new Condition(left, operator, value);
+    }
+
+    String getLeft() {
+        return left;
+    }
+
+    String getOperator() {
+        return operator;
+    }
+
+    String getRight() {
+        return right;
+    }
+
+    @Override
+    public String toString() {
+        return error != null ? left : left + " " + operator + " " + right;
+    }
+}
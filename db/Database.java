@@ -2,31 +2,244 @@
 
 package db;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
- * Database class stores tables in a hash map. supports querying
- * for drop table, create table
+ * Database class stores tables in a concurrent hash map. supports
+ * querying for drop table, create table. transact may be called from
+ * any number of threads. Rows are committed under a single commit
+ * lock, and selects read snapshots of their tables taken under the
+ * same lock, so a select sees every row committed before it started
+ * and none committed after, without waiting for inserts in between.
+ * Writers of a table are kept apart by its write lock.
+ * A database may keep a write-ahead log of its changes, which are
+ * replayed when it is opened again. Once the log grows past
+ * CHECKPOINT_BYTES it is checkpointed, so replay starts from images of
+ * the tables instead of every change ever made.
+ * Materialized views are tables that hold the result of a select and
+ * are brought up to date in the same commit as every row inserted into
+ * the tables they read.
  */
-public class Database {
+public class Database implements Closeable {
 
-    private HashMap<String, Table> tables;
+    // Number of parsed statements kept for reuse.
+    private static final int PLAN_CACHE_SIZE = 256;
+    // Number of cells of select results kept for reuse.
+    private static final long RESULT_CACHE_CELLS = 1 << 20;
+    // Milliseconds between forces of the log with SyncPolicy.GROUP.
+    private static final long GROUP_COMMIT_MILLIS = 10;
+    // Bytes of log after which a commit checkpoints it.
+    private static final long CHECKPOINT_BYTES = 64L << 20;
+
+    private ConcurrentHashMap<String, Table> tables;
+    //the select of every materialized view, only changed under the commit lock
+    private ConcurrentHashMap<String, Statement.Select> views = new ConcurrentHashMap<>();
     private Parser parser;
+    private LruCache<String, Statement> plans;
+    private ResultCache results;
+    private QueryMetrics metrics;
+    private ObjectName mbeanName;
+    private final Object commitLock = new Object();
+    //held by the one checkpoint running at a time
+    private final Object checkpointLock = new Object();
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private WriteAheadLog log;
 
     /**
      * Constructs a database object with no tables inside
      */
     public Database() {
-        tables = new HashMap<>();
+        tables = new ConcurrentHashMap<>();
         parser = new Parser(this);
+        plans = new LruCache<>(PLAN_CACHE_SIZE);
+        results = new ResultCache(RESULT_CACHE_CELLS);
+        metrics = new QueryMetrics(results);
+    }
+
+    /**
+     * Constructs a database that logs its changes to logFile, after
+     * replaying the changes already in it. Table creates, inserts,
+     * drops and loads are logged; the log is forced to disk as policy
+     * says. A logged change that can't be made again fails with an
+     * IOException rather than be left out.
+     */
+    public Database(String logFile, SyncPolicy policy) throws IOException {
+        this(logFile, policy, GROUP_COMMIT_MILLIS);
+    }
+
+    /**
+     * Constructs a logged database whose log is forced every
+     * groupCommitMillis with SyncPolicy.GROUP.
+     */
+    public Database(String logFile, SyncPolicy policy, long groupCommitMillis) throws IOException {
+        this();
+        WriteAheadLog wal = new WriteAheadLog(logFile, policy, groupCommitMillis);
+        try {
+            wal.replay(this::replay);
+        } catch (IOException e) {
+            wal.close();
+            throw e;
+        }
+        log = wal;
+    }
+
+    /**
+     * Forces and closes the write-ahead log, if there is one, and
+     * unregisters the metrics MBean.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                //unregistered by someone else already
+            }
+            mbeanName = null;
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Writes an image of every table to the log and starts the log
+     * again from a record naming them, followed by the changes made
+     * since the images were taken. Changes carry on while the images
+     * are written. Does nothing without a log.
+     */
+    public void checkpoint() throws IOException {
+        if (log == null) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            LinkedHashMap<String, Table> snapshots = new LinkedHashMap<>();
+            LinkedHashMap<String, String> selects = new LinkedHashMap<>();
+            long mark;
+            synchronized (commitLock) {
+                for (Map.Entry<String, Table> e : tables.entrySet()) {
+                    snapshots.put(e.getKey(), e.getValue().snapshot());
+                }
+                for (Map.Entry<String, Statement.Select> e : views.entrySet()) {
+                    selects.put(e.getKey(), e.getValue().getText());
+                }
+                mark = log.getPosition();
+            }
+            LinkedHashMap<String, String> images = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Table> e : snapshots.entrySet()) {
+                    images.put(e.getKey(), log.writeImage(e.getValue()));
+                }
+                byte[] record = WriteAheadLog.checkpoint(images, selects);
+                synchronized (commitLock) {
+                    log.checkpoint(record, mark, images.values());
+                }
+            } catch (IOException e) {
+                for (String image : images.values()) {
+                    log.deleteImage(image);
+                }
+                throw e;
+            }
+        }
     }
 
     /**
-     * Performs a query by passing string to parser
+     * Returns the counters and latency histogram of the queries run.
+     */
+    public QueryMetricsMBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of the database with the platform MBean
+     * server as db:type=Database,name=name, until it is closed.
+     */
+    public void registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("db:type=Database,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mbeanName = objectName;
+    }
+
+    /**
+     * Performs a query by passing string to parser. Queries that
+     * were seen before reuse their parsed statement.
      */
     public String transact(String query) {
-        return parser.eval(query.trim());
+        long start = System.nanoTime();
+        String result = plan(query).execute(parser, null);
+        metrics.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Performs a query like transact(query), but writes the result to
+     * out as it is produced instead of building it as one string.
+     * Returns false if the result is empty and nothing was written.
+     */
+    public boolean transact(String query, Appendable out) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return plan(query).execute(parser, null, out);
+        } finally {
+            metrics.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Parses query once and returns a statement that can be executed
+     * repeatedly. Values written as ? in insert values and where
+     * conditions are parameters that are bound before each execution.
+     */
+    public PreparedStatement prepare(String query) {
+        return new PreparedStatement(this, plan(query));
+    }
+
+    /**
+     * Executes a parsed statement with the parameter values params.
+     */
+    String execute(Statement statement, String[] params) {
+        long start = System.nanoTime();
+        String result = statement.execute(parser, params);
+        metrics.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Returns the parsed statement for query from the plan cache,
+     * parsing it on a miss.
+     */
+    private Statement plan(String query) {
+        String normalized = Parser.normalize(query.trim());
+        Statement statement;
+        synchronized (plans) {
+            statement = plans.get(normalized);
+        }
+        if (statement == null) {
+            statement = parser.parse(normalized);
+            synchronized (plans) {
+                plans.put(normalized, statement);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the cache of select results, which are reused while
+     * the tables they read are unchanged.
+     */
+    ResultCache getResultCache() {
+        return results;
     }
 
     /**
@@ -41,21 +254,114 @@ public class Database {
      * if table exists, returns table. else null
      */
     Table getTable(String tableName) throws ParsingException {
-        if (hasTable(tableName)) {
-            return tables.get(tableName);
-        } else {
+        Table t = tables.get(tableName);
+        if (t == null) {
             throw new ParsingException("ERROR: No such table " + tableName);
         }
+        return t;
+    }
+
+    /**
+     * Returns snapshots of the tables called names, all taken at
+     * the same point between commits.
+     */
+    Table[] snapshot(String[] names) throws ParsingException {
+        Table[] snapshots = new Table[names.length];
+        synchronized (commitLock) {
+            for (int i = 0; i < names.length; i++) {
+                snapshots[i] = getTable(names[i]).snapshot();
+            }
+        }
+        return snapshots;
     }
 
     /**
      * Adds a table to the database.
      */
     void addTable(Table table) throws ParsingException {
-        if (hasTable(table.getName())) {
-            throw new ParsingException("ERROR: Table already exists: " + table.getName());
+        table.collectStats();
+        String image = writeImage(table);
+        long position;
+        try {
+            byte[] record = image == null ? null
+                    : record(() -> WriteAheadLog.table(table.getName(), image));
+            synchronized (commitLock) {
+                if (tables.containsKey(table.getName())) {
+                    throw new ParsingException("ERROR: Table already exists: " + table.getName());
+                }
+                position = append(record);
+                tables.put(table.getName(), table);
+            }
+        } catch (ParsingException e) {
+            deleteImage(image);
+            throw e;
+        }
+        imageLogged(image);
+        commit(position);
+    }
+
+    /**
+     * Adds a table loaded from its .tbl or binary file, replacing any
+     * table of the same name.
+     */
+    void putTable(Table table) throws ParsingException {
+        table.collectStats();
+        String name = table.getName();
+        String image = writeImage(table);
+        long position;
+        try {
+            byte[] record = image == null ? null : record(() -> WriteAheadLog.load(name, image));
+            position = putTable(table, record);
+        } catch (ParsingException e) {
+            deleteImage(image);
+            throw e;
+        }
+        imageLogged(image);
+        commit(position);
+    }
+
+    /**
+     * Replaces the table of the same name as table and the views
+     * reading it, logging record, and returns the position to commit.
+     */
+    private long putTable(Table table, byte[] record) throws ParsingException {
+        String name = table.getName();
+        long position;
+        while (true) {
+            ArrayList<String> reading = viewsReading(name);
+            Collections.sort(reading);
+            ArrayList<Table> locked = new ArrayList<>(reading.size());
+            try {
+                lockViews(reading, locked);
+                //views reading the table are computed again from the loaded rows
+                ArrayList<Table[]> inputs = new ArrayList<>(reading.size());
+                LinkedHashMap<String, Table> refreshed = new LinkedHashMap<>();
+                for (String view : reading) {
+                    Table v = evaluateView(view, name, table.snapshot(), inputs);
+                    if (v != null) {
+                        v.setName(view);
+                        v.collectStats();
+                        refreshed.put(view, v);
+                    }
+                }
+                synchronized (commitLock) {
+                    if (!viewsUnchanged(name, reading, locked, inputs)) {
+                        continue;
+                    }
+                    position = append(record);
+                    tables.put(name, table);
+                    views.remove(name);
+                    tables.putAll(refreshed);
+                }
+                break;
+            } finally {
+                for (Table v : locked) {
+                    v.getWriteLock().unlock();
+                }
+            }
         }
-        tables.put(table.getName(), table);
+        results.invalidate(name);
+        return position;
     }
 
     /**
@@ -64,30 +370,501 @@ public class Database {
      */
     void createNewTable(String name, ArrayList<String> columnNames,
                                        ArrayList<String> columnTypes) throws ParsingException {
-        if (hasTable(name)) {
-            throw new ParsingException("ERROR:  Table " + name + " already exists");
-        }
         Table t = new Table(name, columnNames, columnTypes);
-        tables.put(name, t);
+        t.collectStats();
+        long position;
+        synchronized (commitLock) {
+            if (tables.containsKey(name)) {
+                throw new ParsingException("ERROR:  Table " + name + " already exists");
+            }
+            position = append(log == null ? null
+                    : record(() -> WriteAheadLog.create(name, columnNames, columnTypes)));
+            tables.put(name, t);
+        }
+        commit(position);
+    }
+
+    /**
+     * Creates a materialized view called name holding the result of
+     * select. The view may not read the same table twice, or another
+     * view, so each inserted row changes it through a single join.
+     * Rows can't be added to the tables it reads while it is computed,
+     * selects carry on.
+     */
+    void createView(String name, Statement.Select select) throws ParsingException {
+        String[] names = select.getTables();
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (names[i].equals(names[j])) {
+                    throw new ParsingException("ERROR: Materialized view reads " + names[i]
+                            + " more than once");
+                }
+            }
+        }
+        if (select.getParameterCount() > 0) {
+            throw new ParsingException("ERROR: Materialized view cannot have parameters");
+        }
+        byte[] record = log == null ? null
+                : record(() -> WriteAheadLog.view(name, select.getText()));
+        String[] sorted = names.clone();
+        Arrays.sort(sorted);
+        long position;
+        while (true) {
+            checkNewView(name, names);
+            ArrayList<Table> locked = new ArrayList<>(sorted.length);
+            try {
+                for (String table : sorted) {
+                    Table t = getTable(table);
+                    t.getWriteLock().lock();
+                    locked.add(t);
+                }
+                Table[] from = snapshot(names);
+                Table t = parser.selectReturnTable(select, from, null);
+                t.setName(name);
+                t.collectStats();
+                synchronized (commitLock) {
+                    //a table read was loaded again or dropped since
+                    if (!unchanged(from, null)) {
+                        continue;
+                    }
+                    checkNewView(name, names);
+                    position = append(record);
+                    views.put(name, select);
+                    tables.put(name, t);
+                }
+                break;
+            } finally {
+                for (Table t : locked) {
+                    t.getWriteLock().unlock();
+                }
+            }
+        }
+        commit(position);
+    }
+
+    /**
+     * Fails if a view called name, reading the tables names, can't be
+     * created because the name is taken or one of the tables is a view.
+     */
+    private void checkNewView(String name, String[] names) throws ParsingException {
+        if (tables.containsKey(name)) {
+            throw new ParsingException("ERROR: Table already exists: " + name);
+        }
+        for (String table : names) {
+            if (views.containsKey(table)) {
+                throw new ParsingException("ERROR: Materialized view cannot read view " + table);
+            }
+        }
+    }
+
+    /**
+     * Returns the result of the select of view on snapshots of its
+     * tables, with table name replaced by the rows of replacement, and
+     * adds the tables it was computed from to inputs. Returns null if
+     * the view was dropped. The caller holds the write lock of the view,
+     * which every writer of its tables takes, so only loads and drops
+     * change the tables in the meantime.
+     */
+    private Table evaluateView(String view, String name, Table replacement,
+                               ArrayList<Table[]> inputs) throws ParsingException {
+        Statement.Select select = views.get(view);
+        if (select == null) {
+            return null;
+        }
+        String[] names = select.getTables();
+        Table[] from = snapshot(names);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                from[i] = replacement;
+            }
+        }
+        inputs.add(from);
+        return parser.selectReturnTable(select, from, null);
+    }
+
+    /**
+     * Returns true if the tables from, but for the one called name,
+     * are still the same versions. The caller holds the commit lock.
+     */
+    private boolean unchanged(Table[] from, String name) {
+        for (Table t : from) {
+            if (!t.getName().equals(name)) {
+                Table current = tables.get(t.getName());
+                if (current == null || current.getVersion() != t.getVersion()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the views reading table name are still reading,
+     * with their tables in locked, and the tables their new rows were
+     * computed from, inputs, but for name, haven't changed. The caller
+     * holds the commit lock.
+     */
+    private boolean viewsUnchanged(String name, ArrayList<String> reading,
+                                   ArrayList<Table> locked, ArrayList<Table[]> inputs) {
+        ArrayList<String> current = viewsReading(name);
+        Collections.sort(current);
+        if (!current.equals(reading) || !lockedViews(reading, locked)
+                || inputs.size() != reading.size()) {
+            return false;
+        }
+        for (Table[] from : inputs) {
+            if (!unchanged(from, name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the views that read table name.
+     */
+    private ArrayList<String> viewsReading(String name) {
+        ArrayList<String> reading = new ArrayList<>();
+        for (Map.Entry<String, Statement.Select> e : views.entrySet()) {
+            for (String table : e.getValue().getTables()) {
+                if (table.equals(name)) {
+                    reading.add(e.getKey());
+                }
+            }
+        }
+        return reading;
     }
 
     /**
      * Deletes the table from the database
      */
     void dropTable(String tableName) throws ParsingException {
-        if (hasTable(tableName)) {
-            tables.remove(tableName);
-        } else {
-            throw new ParsingException("ERROR:  No such table " + tableName);
+        Table t;
+        long position;
+        synchronized (commitLock) {
+            if (!tables.containsKey(tableName)) {
+                throw new ParsingException("ERROR:  No such table " + tableName);
+            }
+            ArrayList<String> reading = viewsReading(tableName);
+            if (!reading.isEmpty()) {
+                throw new ParsingException("ERROR: Table " + tableName
+                        + " is used by materialized view " + reading.get(0));
+            }
+            position = append(log == null ? null : record(() -> WriteAheadLog.drop(tableName)));
+            t = tables.remove(tableName);
+            views.remove(tableName);
         }
+        results.invalidate(tableName);
+        commit(position);
+        //wait for the writers still using the table
+        t.getWriteLock().lock();
+        t.getWriteLock().unlock();
     }
 
     /**
-     * adds row of values to tableName
+     * adds row of values to tableName, and the rows it adds to the
+     * materialized views reading tableName to them. Only the new row is
+     * joined with the other tables of a view. If that fails the row
+     * isn't added.
      */
     void addRow(String tableName, String[] values) throws ParsingException {
         Table t = getTable(tableName);
-        t.addRowToTable(values);
+        if (views.containsKey(tableName)) {
+            throw new ParsingException("ERROR: Cannot insert into materialized view "
+                    + tableName);
+        }
+        long position;
+        t.getWriteLock().lock();
+        try {
+            Row r = t.parseRow(values);
+            byte[] record = log == null ? null
+                    : record(() -> WriteAheadLog.insert(tableName, values));
+            position = commitRow(tableName, t, r, record);
+        } finally {
+            t.getWriteLock().unlock();
+        }
+        commit(position);
+    }
+
+    /**
+     * Logs record and adds row r to t, whose write lock is held, and
+     * the rows r adds to the views reading t to them. The write locks
+     * of the views are taken first, in the order of their names, and
+     * the new rows of the views are computed before the commit lock is
+     * taken. Everything is done again if the views changed in between.
+     * Returns the log position to commit.
+     */
+    private long commitRow(String tableName, Table t, Row r, byte[] record)
+            throws ParsingException {
+        while (true) {
+            ArrayList<String> reading = viewsReading(tableName);
+            Collections.sort(reading);
+            ArrayList<Table> locked = new ArrayList<>(reading.size());
+            try {
+                lockViews(reading, locked);
+                ArrayList<Table[]> inputs = new ArrayList<>(reading.size());
+                ArrayList<Table> deltas = new ArrayList<>(reading.size());
+                for (String view : reading) {
+                    Table delta = new Table(tableName, t.getColumnNames(), t.getColumnTypes());
+                    delta.addRowToTable(r);
+                    deltas.add(evaluateView(view, tableName, delta, inputs));
+                }
+                synchronized (commitLock) {
+                    if (!viewsUnchanged(tableName, reading, locked, inputs)) {
+                        continue;
+                    }
+                    long position = append(record);
+                    t.addRowToTable(r);
+                    for (int i = 0; i < locked.size(); i++) {
+                        addRows(locked.get(i), deltas.get(i));
+                    }
+                    return position;
+                }
+            } finally {
+                for (Table v : locked) {
+                    v.getWriteLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the write locks of the tables of the views called names,
+     * in that order, adding the tables to locked. Stops at a view that
+     * was dropped, which the caller finds when it checks locked.
+     */
+    private void lockViews(ArrayList<String> names, ArrayList<Table> locked) {
+        for (String view : names) {
+            Table v = tables.get(view);
+            if (v == null) {
+                return;
+            }
+            v.getWriteLock().lock();
+            locked.add(v);
+        }
+    }
+
+    /**
+     * Returns true if locked holds the tables of the views called
+     * names. The caller holds the commit lock.
+     */
+    private boolean lockedViews(ArrayList<String> names, ArrayList<Table> locked) {
+        if (locked.size() != names.size()) {
+            return false;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            if (tables.get(names.get(i)) != locked.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the rows of rows, which has the same columns, to t.
+     */
+    private static void addRows(Table t, Table rows) {
+        if (rows.getNumRows() == 0) {
+            return;
+        }
+        Column[] cols = new Column[rows.getNumCols()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = rows.getColumn(i);
+        }
+        t.appendRows(cols, rows.getNumRows());
+    }
+
+    /**
+     * Builds an index of kind on column of tableName. Rows can't be
+     * added while it is built, selects carry on with the rows
+     * committed so far.
+     */
+    void createIndex(String tableName, String column, String kind) throws ParsingException {
+        Table t = getTable(tableName);
+        t.getWriteLock().lock();
+        try {
+            Index index = t.buildIndex(column, kind);
+            synchronized (commitLock) {
+                t.addIndex(column, index);
+            }
+        } finally {
+            t.getWriteLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the index on column of tableName.
+     */
+    void dropIndex(String tableName, String column) throws ParsingException {
+        Table t = getTable(tableName);
+        t.getWriteLock().lock();
+        try {
+            synchronized (commitLock) {
+                t.dropIndex(column);
+            }
+        } finally {
+            t.getWriteLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a record read back from the write-ahead log. Only changes
+     * that succeeded are logged, so a record that fails means the log
+     * doesn't match the changes that were made.
+     */
+    private void replay(WriteAheadLog.Record r) throws IOException {
+        try {
+            switch (r.type) {
+                case WriteAheadLog.CREATE:
+                    String name = r.getString();
+                    ArrayList<String> names = new ArrayList<>();
+                    ArrayList<String> types = new ArrayList<>();
+                    for (int i = r.getInt(); i > 0; i--) {
+                        names.add(r.getString());
+                        types.add(r.getString());
+                    }
+                    createNewTable(name, names, types);
+                    break;
+                case WriteAheadLog.INSERT:
+                    String table = r.getString();
+                    String[] values = new String[r.getInt()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = r.getString();
+                    }
+                    addRow(table, values);
+                    break;
+                case WriteAheadLog.DROP:
+                    dropTable(r.getString());
+                    break;
+                case WriteAheadLog.LOAD:
+                    putTable(r.getImage(r.getString()));
+                    break;
+                case WriteAheadLog.VIEW:
+                    String view = r.getString();
+                    createView(view, parseView(view, r.getString()));
+                    break;
+                case WriteAheadLog.TABLE:
+                    Table t = r.getImage(r.getString());
+                    t.collectStats();
+                    tables.put(t.getName(), t);
+                    break;
+                case WriteAheadLog.CHECKPOINT:
+                    //the rows of the views are in the images, so they aren't computed again
+                    for (int i = r.getInt(); i > 0; i--) {
+                        Table image = r.getImage(r.getString());
+                        image.collectStats();
+                        tables.put(image.getName(), image);
+                    }
+                    for (int i = r.getInt(); i > 0; i--) {
+                        String checkpointed = r.getString();
+                        views.put(checkpointed, parseView(checkpointed, r.getString()));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + r.type);
+            }
+        } catch (ParsingException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses the select of view as it was logged.
+     */
+    private Statement.Select parseView(String view, String text) throws IOException {
+        Statement select = parser.parse("select " + text);
+        if (!(select instanceof Statement.Select)) {
+            throw new IOException("Malformed select of view " + view);
+        }
+        return (Statement.Select) select;
+    }
+
+    /**
+     * Builds a log record, turning a failure into an error.
+     */
+    private byte[] record(RecordSupplier supplier) throws ParsingException {
+        try {
+            return supplier.get();
+        } catch (IOException e) {
+            throw new ParsingException("ERROR: Cannot write to log");
+        }
+    }
+
+    /**
+     * Writes table to a new image of the log and returns its name, or
+     * null if there is no log.
+     */
+    private String writeImage(Table table) throws ParsingException {
+        if (log == null) {
+            return null;
+        }
+        try {
+            return log.writeImage(table);
+        } catch (IOException e) {
+            throw new ParsingException("ERROR: Cannot write to log");
+        }
+    }
+
+    /**
+     * Deletes an image written for a change that wasn't made.
+     */
+    private void deleteImage(String image) {
+        if (image != null) {
+            log.deleteImage(image);
+        }
+    }
+
+    /**
+     * Tells the log the record naming image was appended.
+     */
+    private void imageLogged(String image) {
+        if (image != null) {
+            log.imageLogged(image);
+        }
+    }
+
+    /**
+     * Appends record to the log, if it isn't null, and returns the
+     * position to commit. The caller holds the commit lock.
+     */
+    private long append(byte[] record) throws ParsingException {
+        if (record == null) {
+            return 0;
+        }
+        try {
+            return log.append(record);
+        } catch (IOException e) {
+            throw new ParsingException("ERROR: Cannot write to log");
+        }
+    }
+
+    /**
+     * Waits for the log to be on disk up to position as far as the
+     * sync policy asks for, then checkpoints the log if it has grown
+     * past CHECKPOINT_BYTES and no other commit is checkpointing it.
+     */
+    private void commit(long position) throws ParsingException {
+        if (log == null || position == 0) {
+            return;
+        }
+        try {
+            log.commit(position);
+        } catch (IOException e) {
+            throw new ParsingException("ERROR: Cannot sync log");
+        }
+        if (log.size() > CHECKPOINT_BYTES && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                //the change is committed, the log is checkpointed by a later commit
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    private interface RecordSupplier {
+        byte[] get() throws IOException;
     }
 }
 
@@ -2,393 +2,391 @@ package db;
 
 /**
  * Element class acts as wrapper object around database primitive types
- * string, float, integer, NaN, NOVALUE.
- *
- * @param <Item> (generic)
+ * string, float, integer, NaN, NOVALUE. Ints and floats are kept as
+ * primitives and all dispatch happens on the Type of the element.
  */
-class Element<Item> {
-    private Item value;
-    private String type;
+class Element {
+
+    // Comparison operators.
+    static final int GE = 0, LE = 1, EQ = 2, NE = 3, GT = 4, LT = 5;
+    private static final String[] COMPARISONS = {">=", "<=", "==", "!=", ">", "<"};
+
+    // Arithmetic operators.
+    static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3;
+
+    private static final Element NAN = new Element(Type.NAN, 0, 0.0, null);
+    private static final Element NOVALUE = new Element(Type.NOVALUE, 0, 0.0, null);
+
+    private final Type type;
+    private final int intValue;
+    private final double floatValue;
+    private final String stringValue;
 
     /**
-     * Constructs an element object with value and type.
+     * Constructs an element object with a type and the value
+     * matching that type.
      */
-    private Element(Item value, String type) {
-        this.value = value;
+    private Element(Type type, int intValue, double floatValue, String stringValue) {
         this.type = type;
+        this.intValue = intValue;
+        this.floatValue = floatValue;
+        this.stringValue = stringValue;
     }
 
-    Item value() {
-        return value;
+    /**
+     * Factories used by the column store to hand out elements
+     * for values it keeps in primitive form.
+     */
+    static Element ofInt(int value) {
+        return new Element(Type.INT, value, 0.0, null);
     }
 
-    String type() {
-        return type;
+    static Element ofFloat(double value) {
+        return new Element(Type.FLOAT, 0, value, null);
+    }
+
+    static Element ofString(String value) {
+        return new Element(Type.STRING, 0, 0.0, value);
+    }
+
+    static Element nan() {
+        return NAN;
     }
 
-    private boolean type(String s) {
-        return type().equals(s);
+    static Element novalue() {
+        return NOVALUE;
     }
 
     /**
-     * Used to see if two elements are the same type and thus
-     * can be compared or evaluated in an expression.
+     * Returns the value as an object, used for printing.
      */
-    private static boolean sameType(Element e1, Element e2) {
-        return e1.type.equals(e2.type);
+    Object value() {
+        switch (type) {
+            case INT:
+                return intValue;
+            case FLOAT:
+                return floatValue;
+            case STRING:
+                return stringValue;
+            case NAN:
+                return new Nan();
+            default:
+                return new Novalue();
+        }
     }
 
-    boolean equalElements(Element e2) {
-        return this.type.equals(e2.type) && this.value.equals(e2.value);
+    Type type() {
+        return type;
     }
 
-    static boolean compare(Element e1, Element e2, String operator) throws ParsingException {
+    int intValue() {
+        return intValue;
+    }
 
-        if (e1.type.equals("NaN")) {
-            return !e2.type.equals("Nan");
-        }
+    double floatValue() {
+        return floatValue;
+    }
 
-        String type1 = e1.type;
-        String type2 = e2.type;
-        if (type1.equals("NOVALUE") || type2.equals("NOVALUE")) {
+    String stringValue() {
+        return stringValue;
+    }
+
+    /**
+     * Returns true if e2 has the same type and value. Floats are
+     * equal as in Double.equals, NaN equals NaN and NOVALUE equals
+     * NOVALUE.
+     */
+    boolean equalElements(Element e2) {
+        if (type != e2.type) {
             return false;
         }
-
-        /*String check1 = "NaN,int,float";
-        String check2 = "string";
-
-        if (!((check1.contains(type1) && check1.contains(type2))
-                || (check2.contains(type1) && check2.contains(type2)))) {
-            throw new ParsingException("ERROR: Incomparable " + type1 + operator + type2);
-        }*/
-
-        if ((e1.type("string") && !e2.type("string"))
-                || (!e1.type("string") && e2.type("string"))) {
-            throw new ParsingException("ERROR: Incomparable " + type1 + operator + type2);
+        switch (type) {
+            case INT:
+                return intValue == e2.intValue;
+            case FLOAT:
+                return Double.doubleToLongBits(floatValue) == Double.doubleToLongBits(e2.floatValue);
+            case STRING:
+                return stringValue.equals(e2.stringValue);
+            default:
+                return true;
         }
+    }
 
-        switch (operator) {
-            case ">=":
-                return greaterEqual(e1, e2);
-            case "<=":
-                return lessEqual(e1, e2);
-            case "==":
-                return e1.equalElements(e2);
-            case "!=":
-                return !e1.equalElements(e2);
-            case ">":
-                return greater(e1, e2);
-            case "<":
-                return less(e1, e2);
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Element && equalElements((Element) o);
+    }
+
+    @Override
+    public int hashCode() {
+        switch (type) {
+            case INT:
+                return Integer.hashCode(intValue);
+            case FLOAT:
+                return Double.hashCode(floatValue);
+            case STRING:
+                return stringValue.hashCode();
             default:
-                throw new ParsingException("ERROR: Cannot determine operator " + operator);
+                return type.hashCode();
         }
     }
 
-    static Element arithmetic(Element e1, Element e2, String operator) throws ParsingException {
-        if ((e1.type.equals("NaN") || e2.type.equals("NaN"))) {
-            return new Element<>(new Nan(), "NaN");
-        } else if (e1.type.equals("NOVALUE") && e2.type.equals("NOVALUE")) {
-            return new Element<>(new Novalue(), "NOVALUE");
-            //} else if (e2.type.equals("NOVALUE")) {
-            //    return e1;
-        } else if ((e1.type().equals("string") && !e2.type().equals("string")) || (e2.type().equals("string") && !e1.type().equals("string"))) {
-            throw new ParsingException("ERROR: Invalid type comparison "
-                    + e1.type + " and " + e2.type);
-        } else if (!sameType(e1, e2) && !e1.type.equals("int") && !e1.type.equals("float") && !e2.type.equals("int") && !e2.type.equals("float")) {
-            throw new ParsingException("ERROR: Invalid type comparison "
-                    + e1.type + " and " + e2.type);
+    /**
+     * Returns the code of a comparison operator, or -1 if
+     * operator is unknown.
+     */
+    static int comparisonCode(String operator) {
+        for (int i = 0; i < COMPARISONS.length; i++) {
+            if (COMPARISONS[i].equals(operator)) {
+                return i;
+            }
         }
+        return -1;
+    }
+
+    /**
+     * Returns the code of an arithmetic operator as split on by
+     * ExpressionParser, or -1 if operator is unknown.
+     */
+    static int arithmeticCode(String operator) {
         switch (operator) {
             case "\\+":
-                return add(e1, e2);
+                return ADD;
             case "-":
-                return sub(e1, e2);
+                return SUB;
             case "\\*":
-                return mult(e1, e2);
+                return MUL;
             case "/":
-                return div(e1, e2);
+                return DIV;
             default:
-                throw new ParsingException("ERROR: Cannot determine operator " + operator);
+                return -1;
         }
     }
 
-    private static Element add(Element e1, Element e2) throws ParsingException {
-
-        switch (e1.type) {
-            case "string":
-                String s1 = e1.value.toString().replace("\'", "");
-                String s2 = e2.value.toString().replace("\'", "");
-                String s = "'" + s1 + s2 + "'";
-                return new Element<>(s, "string");
-            case "int":
-                if (e2.type.equals("NOVALUE")) {
-                    return e1;
-                }
-                if (e2.type.equals("int")) {
-                    int v = ((Integer) e1.value) + ((Integer) e2.value);
-                    return new Element<>(v, "int");
-                } else {
-                    int i = (Integer) e1.value;
-                    double d = (Double) e2.value;
-                    return new Element<>(d + i, "float");
-                }
-            case "float":
-                if (e2.type.equals("NOVALUE")) {
-                    return e1;
-                }
-                if (e2.type().equals("float")) {
-                    Double d = ((Double) e1.value) + ((Double) e2.value);
-                    return new Element<>(d, "float");
-                } else {
-                    Double d = (Double) e1.value;
-                    int i = (Integer) e2.value;
-                    return new Element<>(d + i, "float");
-                }
-            case "NOVALUE":
-                return e2;
+    /**
+     * Returns whether a comparison result cmp (negative, zero or
+     * positive) satisfies the operator op.
+     */
+    static boolean test(int op, int cmp) {
+        switch (op) {
+            case GE:
+                return cmp >= 0;
+            case LE:
+                return cmp <= 0;
+            case EQ:
+                return cmp == 0;
+            case NE:
+                return cmp != 0;
+            case GT:
+                return cmp > 0;
             default:
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot add elements");
+                return cmp < 0;
         }
     }
 
-    private static Element sub(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot subtract strings");
-            case "int":
-                if (e2.type.equals("int")) {
-                    int v = ((Integer) e1.value) - ((Integer) e2.value);
-                    return new Element<>(v, "int");
-                } else {
-                    if (e2.type.equals("NOVALUE")) {
-                        return e1;
-                    }
-                    int i = (Integer) e1.value;
-                    double d = (Double) e2.value;
-                    return new Element<>(i - d, "float");
-                }
-            case "float":
-                if (e2.type().equals("float")) {
-                    Double d = ((Double) e1.value) - ((Double) e2.value);
-                    return new Element<>(d, "float");
-                } else {
-                    if (e2.type().equals("NOVALUE")) {
-                        return e1;
-                    }
-                    Double d = (Double) e1.value;
-                    int i = (Integer) e2.value;
-                    return new Element<>(d - i, "float");
-                }
-            case "NOVALUE":
-                if (e2.type().equals("float")) {
-                    return new Element<>(0.0 - (Double) e2.value, "float");
-                }
-                if (e2.type().equals("int")) {
-                    return new Element<>(0 - (Integer) e2.value, "int");
-                }
+    /**
+     * Compares two doubles: equality follows Double.equals, the
+     * orderings follow the primitive operators.
+     */
+    static boolean test(int op, double a, double b) {
+        switch (op) {
+            case GE:
+                return a >= b;
+            case LE:
+                return a <= b;
+            case EQ:
+                return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+            case NE:
+                return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+            case GT:
+                return a > b;
             default:
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot subtract elements");
+                return a < b;
         }
     }
 
-    private static Element mult(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot multiply strings");
-            case "int":
-                if (e2.type().equals("NOVALUE")) {
-                    return new Element<>(0, "int");
-                }
-                if (e2.type.equals("int")) {
-                    int v = ((Integer) e1.value) * ((Integer) e2.value);
-                    return new Element<>(v, "int");
-                } else {
-                    int i = (Integer) e1.value;
-                    double d = (Double) e2.value;
-                    return new Element<>(d * i, "float");
-                }
-            case "float":
-                if (e2.type().equals("NOVALUE")) {
-                    return new Element<>(0.0, "float");
-                }
-                if (e2.type().equals("float")) {
-                    Double d = ((Double) e1.value) * ((Double) e2.value);
-                    return new Element<>(d, "float");
-                } else {
-                    Double d = (Double) e1.value;
-                    int i = (Integer) e2.value;
-                    return new Element<>(d * i, "float");
-                }
-            case "NOVALUE":
-                if (e2.type().equals("float")) {
-                    return new Element<>(0.0, "float");
-                }
-                if (e2.type().equals("int")) {
-                    return new Element<>(0, "int");
-                }
-            default:
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot multiply elements");
+    static boolean compare(Element e1, Element e2, String operator) throws ParsingException {
+        int op = comparisonCode(operator);
+        if (op == -1) {
+            throw new ParsingException("ERROR: Cannot determine operator " + operator);
         }
+        return compare(e1, e2, op);
     }
 
-    private static Element div(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot divide strings");
-            case "int":
-                try {
-                    if (e2.type == "NOVALUE") {
-                        return new Element<>(new Nan(), "NaN");
-                    }
-                    if (e2.type.equals("int")) {
-                        int v = ((Integer) e1.value) / ((Integer) e2.value);
-                        return new Element<>(v, "int");
-                    } else {
-                        Double d = (Integer) e1.value / (Double) e2.value;
-                        if (d.isInfinite()) {
-                            return new Element<>(new Nan(), "NaN");
-                        } else {
-                            return new Element<>(d, "float");
-                        }
-                    }
-                } catch (ArithmeticException e) {
-                    return new Element<>(new Nan(), "NaN");
-                }
-            case "float":
-                Double d = 0.0;
-                if (e2.type().equals("float")) {
-                    d = ((Double) e1.value) / ((Double) e2.value);
-                }
-                if (e2.type == "NOVALUE") {
-                    return new Element<>(new Nan(), "NaN");
-                }
-                if (e2.type == "NaN") {
-                    return e2;
-                }
-                if (e2.type().equals("int")) {
-                    d = (Double) e1.value / (Integer) e2.value;
-                }
-                if (d.isInfinite()) {
-                    return new Element<>(new Nan(), "NaN");
-                } else {
-                    return new Element<>(d, "float");
+    /**
+     * Evaluates e1 op e2. A NaN on the left satisfies every comparison,
+     * a NOVALUE on either side satisfies none, and a NaN on the right
+     * is greater than every number.
+     */
+    static boolean compare(Element e1, Element e2, int op) throws ParsingException {
+        Type type1 = e1.type;
+        Type type2 = e2.type;
+        if (type1 == Type.NAN) {
+            return true;
+        }
+        if (type1 == Type.NOVALUE || type2 == Type.NOVALUE) {
+            return false;
+        }
+        if ((type1 == Type.STRING) != (type2 == Type.STRING)) {
+            throw new ParsingException("ERROR: Incomparable " + type1 + COMPARISONS[op] + type2);
+        }
+
+        switch (type1) {
+            case STRING:
+                if (op == EQ || op == NE) {
+                    return e1.stringValue.equals(e2.stringValue) == (op == EQ);
                 }
-            case "NOVALUE":
-                if (e2.type() == "float") {
-                    return new Element<>(0.0, "float");
+                return test(op, e1.stringValue.compareTo(e2.stringValue));
+            case INT:
+                if (type2 == Type.INT) {
+                    return test(op, Integer.compare(e1.intValue, e2.intValue));
+                } else if (type2 == Type.FLOAT) {
+                    return op == EQ || op == NE ? op == NE : test(op, e1.intValue, e2.floatValue);
                 }
-                if (e2.type() == "int") {
-                    return new Element<>(0, "int");
+                return op == NE || op == LT || op == LE;
+            default:
+                if (type2 == Type.FLOAT) {
+                    return test(op, e1.floatValue, e2.floatValue);
+                } else if (type2 == Type.INT) {
+                    return op == EQ || op == NE ? op == NE : test(op, e1.floatValue, e2.intValue);
                 }
-                if (e2.type() == "NaN") {
-                    return new Element<>(new Nan(), "NaN");
+                return op == NE || op == LT || op == LE;
+        }
+    }
 
-                }
-            default:
-                throw new ParsingException("ERROR: Arithmetic Error: Cannot divide elements");
+    static Element arithmetic(Element e1, Element e2, String operator) throws ParsingException {
+        int op = arithmeticCode(operator);
+        if (op == -1) {
+            throw new ParsingException("ERROR: Cannot determine operator " + operator);
         }
+        return arithmetic(e1, e2, op);
     }
 
-    static Element createFromLiteral(String s) throws ParsingException {
-        String type;
-        if (s.contains("'")) {
-            type = "string";
-        } else if (s.contains(".")) {
-            type = "float";
-        } else if (s.contains("NOVALUE")) {
-            type = "NOVALUE";
-        } else if (s.contains("NaN")) {
-            type = "NaN";
-        } else if (isInt(s)) {
-            type = "int";
-        } else {
-            throw new ParsingException("ERROR: Cannot determine type " + s);
+    /**
+     * Evaluates e1 op e2. NaN on either side gives NaN, NOVALUE acts as
+     * the identity of addition and subtraction and as zero otherwise.
+     */
+    static Element arithmetic(Element e1, Element e2, int op) throws ParsingException {
+        Type type1 = e1.type;
+        Type type2 = e2.type;
+        if (type1 == Type.NAN || type2 == Type.NAN) {
+            return NAN;
+        } else if (type1 == Type.NOVALUE && type2 == Type.NOVALUE) {
+            return NOVALUE;
+        } else if ((type1 == Type.STRING) != (type2 == Type.STRING)) {
+            throw new ParsingException("ERROR: Invalid type comparison "
+                    + type1 + " and " + type2);
         }
 
-        switch (type) {
-            case "int":
-                return new Element<>(Integer.parseInt(s), type);
-            case "string":
-                return new Element<>(s, type);
-            case "float":
-                return new Element<>(Double.parseDouble(s), type);
-            case "NaN":
-                return new Element<>(new Nan(), type);
-            case "NOVALUE":
-                return new Element<>(new Novalue(), type);
-            default:
-                throw new ParsingException("ERROR: Cannot determine type " + s);
+        if (type1 == Type.STRING) {
+            return stringArithmetic(e1.stringValue, e2.stringValue, op);
+        } else if (type1 == Type.NOVALUE) {
+            return novalueLeft(e2, op);
+        } else if (type2 == Type.NOVALUE) {
+            return novalueRight(e1, op);
+        } else if (type1 == Type.INT && type2 == Type.INT) {
+            return intArithmetic(e1.intValue, e2.intValue, op);
+        } else if (type1 == Type.INT) {
+            return floatArithmetic(e1.intValue, e2.floatValue, op);
+        } else if (type2 == Type.INT) {
+            return floatArithmetic(e1.floatValue, e2.intValue, op);
+        } else {
+            return floatArithmetic(e1.floatValue, e2.floatValue, op);
         }
     }
 
     /**
-     * Helper function to determine if a
-     * string is an integer.
+     * Strings can only be concatenated, their quotes are moved
+     * around the result.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private static boolean isInt(String str) {
-        try {
-            Integer.parseInt(str);
-        } catch (NumberFormatException e) {
-            return false;
+    private static Element stringArithmetic(String s1, String s2, int op) throws ParsingException {
+        switch (op) {
+            case ADD:
+                return ofString("'" + s1.replace("'", "") + s2.replace("'", "") + "'");
+            case SUB:
+                throw new ParsingException("ERROR: Arithmetic Error: Cannot subtract strings");
+            case MUL:
+                throw new ParsingException("ERROR: Arithmetic Error: Cannot multiply strings");
+            default:
+                throw new ParsingException("ERROR: Arithmetic Error: Cannot divide strings");
         }
-        return true;
     }
 
-    private static boolean greater(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                return e1.value.toString().compareTo(e2.value.toString()) > 0;
-            case "int":
-                return ((Integer) e1.value) > ((Integer) e2.value);
-            case "float":
-                return ((Double) e1.value) > ((Double) e2.value);
+    static Element intArithmetic(int a, int b, int op) {
+        switch (op) {
+            case ADD:
+                return ofInt(a + b);
+            case SUB:
+                return ofInt(a - b);
+            case MUL:
+                return ofInt(a * b);
             default:
-                throw new ParsingException("ERROR: Comparison error");
+                return b == 0 ? NAN : ofInt(a / b);
         }
     }
 
-    private static boolean less(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                return e1.value.toString().compareTo(e2.value.toString()) < 0;
-            case "int":
-                return ((Integer) e1.value) < ((Integer) e2.value);
-            case "float":
-                if (e2.type("int")) {
-                    return ((Double) e1.value) < ((Integer) e2.value);
-                } else {
-                    return ((Double) e1.value) < ((Double) e2.value);
-                }
+    static Element floatArithmetic(double a, double b, int op) {
+        switch (op) {
+            case ADD:
+                return ofFloat(a + b);
+            case SUB:
+                return ofFloat(a - b);
+            case MUL:
+                return ofFloat(a * b);
             default:
-                throw new ParsingException("ERROR: Comparison error");
+                double d = a / b;
+                return Double.isInfinite(d) ? NAN : ofFloat(d);
         }
     }
 
-    private static boolean greaterEqual(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                return e1.value.toString().compareTo(e2.value.toString()) >= 0;
-            case "int":
-                return ((Integer) e1.value) >= ((Integer) e2.value);
-            case "float":
-                return ((Double) e1.value) >= ((Double) e2.value);
+    /**
+     * NOVALUE op e2 where e2 is an int or a float.
+     */
+    private static Element novalueLeft(Element e2, int op) {
+        boolean isInt = e2.type == Type.INT;
+        switch (op) {
+            case ADD:
+                return e2;
+            case SUB:
+                return isInt ? ofInt(0 - e2.intValue) : ofFloat(0.0 - e2.floatValue);
             default:
-                throw new ParsingException("ERROR: Comparison error");
+                return isInt ? ofInt(0) : ofFloat(0.0);
         }
     }
 
-    private static boolean lessEqual(Element e1, Element e2) throws ParsingException {
-        switch (e1.type) {
-            case "string":
-                return e1.value.toString().compareTo(e2.value.toString()) <= 0;
-            case "int":
-                return ((Integer) e1.value) <= ((Integer) e2.value);
-            case "float":
-                return ((Double) e1.value) <= ((Double) e2.value);
+    /**
+     * e1 op NOVALUE where e1 is an int or a float.
+     */
+    private static Element novalueRight(Element e1, int op) {
+        switch (op) {
+            case ADD:
+            case SUB:
+                return e1;
+            case MUL:
+                return e1.type == Type.INT ? ofInt(0) : ofFloat(0.0);
             default:
-                throw new ParsingException("ERROR: Comparison error");
+                return NAN;
+        }
+    }
+
+    static Element createFromLiteral(String s) throws ParsingException {
+        if (s.contains("'")) {
+            return ofString(s);
+        } else if (s.contains(".")) {
+            try {
+                return ofFloat(Double.parseDouble(s));
+            } catch (NumberFormatException e) {
+                throw new ParsingException("ERROR: Cannot determine type " + s);
+            }
+        } else if (s.contains("NOVALUE")) {
+            return NOVALUE;
+        } else if (s.contains("NaN")) {
+            return NAN;
+        }
+        try {
+            return ofInt(Integer.parseInt(s));
+        } catch (NumberFormatException e) {
+            throw new ParsingException("ERROR: Cannot determine type " + s);
         }
     }
 }
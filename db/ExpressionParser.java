@@ -1,168 +1,336 @@
 package db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Statically handles column expressions and where
- * condition expressions.
+ * condition expressions. Large tables are evaluated in
+ * parallel morsels of rows, see Parallel.
+ *
+ * The column expressions and where conditions of a select run as
+ * one pipeline over the joined rows: computed columns are evaluated,
+ * every condition narrows a list of row positions, and the output
+ * columns are only gathered once, at the rows that are left.
+ * Columns copied unchanged are never copied before that.
  */
 class ExpressionParser {
 
     /**
-     * Takes in a table and returns the columns in colExprs
-     * and rows that match the predicate conds.
+     * Takes in a set of rows and returns the columns in colExprs, or
+     * every column if colExprs is null, and rows that match every
+     * condition in conds.
      */
-    static Table parse(Table table, String colExprs, String conds) throws ParsingException {
+    static Table parse(RowSet rows, ArrayList<ColumnExpression> colExprs,
+                       ArrayList<Condition> conds) throws ParsingException {
 
-        Table result;
+        Projection result = new Projection(rows);
 
         /* column expressions */
-        if (!colExprs.equals("*")) {
-            result = new Table("", new ArrayList<>(), new ArrayList<>());
-            for (String expr : colExprs.split(",")) {
-                evaluateExpression(table, result, expr);
+        if (colExprs != null) {
+            for (ColumnExpression expr : colExprs) {
+                evaluateExpression(rows, result, expr);
             }
         } else {
-            result = table;
+            for (int i = 0; i < rows.getNumCols(); i++) {
+                result.pass(i);
+            }
         }
 
         /* where clause */
-        if (conds == null) {
-            return result;
-        } else {
-            for (String cond : conds.split("and")) {
-                result = evaluateWhere(result, cond);
-            }
-            return result;
+        int[] positions = null;
+        int n = rows.getNumRows();
+        for (Condition cond : conds) {
+            positions = evaluateWhere(result, cond, positions, n);
+            n = positions.length;
+        }
+        return result.gather(positions, n);
+    }
+
+    /**
+     * Returns the rows of src that meet cond.
+     */
+    static RowSet evaluateWhere(RowSet src, Condition cond) throws ParsingException {
+        Projection all = new Projection(src);
+        for (int i = 0; i < src.getNumCols(); i++) {
+            all.pass(i);
         }
+        int[] positions = evaluateWhere(all, cond, null, src.getNumRows());
+        return src.select(positions, positions.length);
     }
 
     /**
-     * evaluates an expression on src and returns dest.
+     * evaluates an expression on src and adds its column to dest.
      */
-    private static void evaluateExpression(Table src, Table dest, String expr)
+    private static void evaluateExpression(RowSet src, Projection dest, ColumnExpression expr)
             throws ParsingException {
 
-        if (!expr.contains(" as ")) {
-            String name = expr.trim();
+        expr.check();
+        if (expr.isColumn()) {
+            String name = expr.getName();
             if (src.hasColumn(name)) {
-                Table.copyColumn(src, dest, name);
+                dest.pass(src.indexOfColumn(name));
             } else {
                 throw new ParsingException("ERROR: Cannot find column " + name);
             }
         } else {
-            String colName = expr.split(" as ")[1].trim();
-            expr = expr.split(" as ")[0];
-
-
-            String operator;
-            if (expr.contains("*")) {
-                operator = "\\*";
-            } else if (expr.contains("+")) {
-                operator = "\\+";
-            } else if (expr.contains("-")) {
-                operator = "-";
-            } else if (expr.contains("/")) {
-                operator = "/";
-            } else {
-                throw new ParsingException("ERROR: Invalid column Expression " + expr);
-            }
-
-            String leftOperand = expr.split(operator)[0].trim();
-            String rightOperand = expr.split(operator)[1].trim();
+            String colName = expr.getName();
+            String leftOperand = expr.getLeft();
+            String rightOperand = expr.getRight();
 
             if (!src.hasColumn(leftOperand)) {
                 throw new ParsingException("ERROR: Cannot find column " + leftOperand);
             }
-            String colType = src.getTypeOfColumn(leftOperand);
-            ArrayList<Element> elements = new ArrayList<>();
-
-            if (src.hasColumn(rightOperand)) {
-                //x + y
-                int leftIndex = src.indexOfColumn(leftOperand);
-                int rightIndex = src.indexOfColumn(rightOperand);
-                for (int i = 0; i < src.getNumRows(); i++) {
-                    Element e1 = src.getRow(i).getElement(leftIndex);
-                    Element e2 = src.getRow(i).getElement(rightIndex);
-                    Element e = Element.arithmetic(e1, e2, operator);
-
-                    if (e.type()!= colType && e.type() != "NaN" && e.type() != "NOVALUE"){
-                        colType = e.type();
-                    }
-                    elements.add(e);
+            int op = expr.getOperator();
+            int leftIndex = src.indexOfColumn(leftOperand);
+            int rightIndex = src.indexOfColumn(rightOperand);
+            Element literal = rightIndex == -1 ? Element.createFromLiteral(rightOperand) : null;
+            Column left = dest.sourceColumn(leftIndex);
+            Column right = rightIndex == -1 ? null : dest.sourceColumn(rightIndex);
+
+            //int and float columns go through the batch kernels
+            Column computed = Kernels.arithmetic(left, right, literal, op, src.getNumRows());
+            if (computed != null) {
+                String type = computed instanceof IntColumn ? "int" : "float";
+                dest.add(colName, type, computed);
+                return;
+            }
+
+            //x + y or x + 2, evaluated on morsels of rows in parallel
+            List<ArrayList<Element>> parts = Parallel.map(src.getNumRows(), (from, to) -> {
+                ArrayList<Element> part = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    Element e1 = left.get(i);
+                    Element e2 = literal != null ? literal : right.get(i);
+                    part.add(Element.arithmetic(e1, e2, op));
                 }
-            } else {
-                //x + 2
-                Element literal = Element.createFromLiteral(rightOperand);
-                int index = src.indexOfColumn(leftOperand);
-                for (int i = 0; i < src.getNumRows(); i++) {
-                    Element e1 = src.getRow(i).getElement(index);
-                    Element e = Element.arithmetic(e1, literal, operator);
-                    if (e.type()!= colType && e.type() != "NaN" && e.type() != "NOVALUE"){
-                        colType = e.type();
-                    }
-                    elements.add(e);
+                return part;
+            });
+            ArrayList<Element> elements = parts.get(0);
+            if (parts.size() > 1) {
+                elements = new ArrayList<>(src.getNumRows());
+                for (ArrayList<Element> part : parts) {
+                    elements.addAll(part);
+                }
+            }
+
+            //the column takes the type of the last result that isn't null
+            String colType = src.getTypeOfColumn(leftOperand);
+            for (int i = elements.size() - 1; i >= 0; i--) {
+                if (!elements.get(i).type().isNull()) {
+                    colType = elements.get(i).type().toString();
+                    break;
                 }
             }
-            dest.addColumn(colName, colType, elements);
+            dest.add(colName, colType, Column.of(colType, elements));
         }
     }
 
     /**
-     * evaluates where expressions on src table, returns a new
-     * table that meets conds.
+     * evaluates a where condition on the rows of src at
+     * positions[0..n), or on every row if positions is null, and
+     * returns the positions of the rows that meet cond.
      */
-    private static Table evaluateWhere(Table src, String conds) throws ParsingException {
-
-        Table result = new Table("", src.getColumnNames(), src.getColumnTypes());
-
-        String operator;
-        if (conds.contains(">=") || conds.contains("=>")) {
-            operator = ">=";
-        } else if (conds.contains("<=") || conds.contains("=<")) {
-            operator = "<=";
-        } else if (conds.contains(">")) {
-            operator = ">";
-        } else if (conds.contains("<")) {
-            operator = "<";
-        } else if (conds.contains("==")) {
-            operator = "==";
-        } else if (conds.contains("!=")) {
-            operator = "!=";
-        } else {
-            throw new ParsingException("ERROR: Invalid where clause " + conds);
-        }
-
-        String leftOperand = conds.split(operator)[0].trim();
-        String rightOperand = conds.split(operator)[1].trim();
+    private static int[] evaluateWhere(Projection src, Condition cond, int[] positions, int n)
+            throws ParsingException {
+        cond.check();
+        String leftOperand = cond.getLeft();
+        String operator = cond.getOperator();
+        String rightOperand = cond.getRight();
 
         if (!src.hasColumn(leftOperand)) {
             throw new ParsingException("ERROR: Cannot find column " + leftOperand);
         }
 
+        int op = Element.comparisonCode(operator);
+        List<int[]> parts;
         if (src.hasColumn(rightOperand)) {
             //x > y
-            int leftIndex = src.indexOfColumn(leftOperand);
-            int rightIndex = src.indexOfColumn(rightOperand);
-            for (int i = 0; i < src.getNumRows(); i++) {
-                Element e1 = src.getRow(i).getElement(leftIndex);
-                Element e2 = src.getRow(i).getElement(rightIndex);
-                if (Element.compare(e1, e2, operator)) {
-                    result.addRowToTable(src.getRow(i));
+            Column left = src.column(src.indexOfColumn(leftOperand));
+            Column right = src.column(src.indexOfColumn(rightOperand));
+            parts = Parallel.map(n, (from, to) -> {
+                int[] rows = new int[to - from];
+                int count = 0;
+                for (int k = from; k < to; k++) {
+                    int i = positions == null ? k : positions[k];
+                    if (Element.compare(left.get(i), right.get(i), op)) {
+                        rows[count++] = i;
+                    }
                 }
-            }
+                return Arrays.copyOf(rows, count);
+            });
         } else {
             //x > 2
             Element literal = Element.createFromLiteral(rightOperand);
             int index = src.indexOfColumn(leftOperand);
-            for (int i = 0; i < src.getNumRows(); i++) {
-                Element e1 = src.getRow(i).getElement(index);
-                if (Element.compare(e1, literal, operator)) {
-                    result.addRowToTable(src.getRow(i));
+            int[] candidates = positions == null ? src.lookup(index, op, literal) : null;
+            Column column = src.column(index);
+            if (candidates != null) {
+                //only check the rows the index found
+                int count = 0;
+                for (int row : candidates) {
+                    if (Element.compare(column.get(row), literal, op)) {
+                        candidates[count++] = row;
+                    }
+                }
+                return Arrays.copyOf(candidates, count);
+            }
+            ZoneMap zones = positions == null ? src.zoneMap(index) : null;
+            parts = Parallel.map(n, (from, to) -> {
+                if (zones == null) {
+                    return scan(column, op, literal, positions, from, to);
+                }
+                //only the runs of blocks whose range may satisfy cond
+                List<int[]> found = new ArrayList<>();
+                int start = from;
+                while (start < to) {
+                    int end = start;
+                    while (end < to && zones.mayMatch(end / ZoneMap.BLOCK_SIZE, op, literal)) {
+                        end = Math.min(to, (end / ZoneMap.BLOCK_SIZE + 1) * ZoneMap.BLOCK_SIZE);
+                    }
+                    if (end > start) {
+                        found.add(scan(column, op, literal, null, start, end));
+                    }
+                    start = Math.min(to, (end / ZoneMap.BLOCK_SIZE + 1) * ZoneMap.BLOCK_SIZE);
                 }
+                return Parallel.concat(found);
+            });
+        }
+        return Parallel.concat(parts);
+    }
+
+    /**
+     * Returns the rows at positions[from..to), or the rows from to to
+     * if positions is null, whose value in column satisfies op literal.
+     */
+    private static int[] scan(Column column, int op, Element literal, int[] positions, int from,
+                              int to) throws ParsingException {
+        int[] selected = column.select(op, literal, positions, from, to);
+        if (selected != null) {
+            return selected;
+        }
+        int[] rows = new int[to - from];
+        int count = 0;
+        for (int k = from; k < to; k++) {
+            int i = positions == null ? k : positions[k];
+            if (Element.compare(column.get(i), literal, op)) {
+                rows[count++] = i;
             }
         }
-        return result;
+        return Arrays.copyOf(rows, count);
     }
-}
 
+    /**
+     * The output columns of a select over a set of rows. A column is
+     * either computed, and holds a value for every row, or passed
+     * unchanged from the rows and only gathered when it is needed.
+     */
+    private static class Projection {
+        private final RowSet rows;
+        private final ArrayList<String> names = new ArrayList<>();
+        private final ArrayList<String> types = new ArrayList<>();
+        //the column of rows each output column passes, -1 if computed
+        private final ArrayList<Integer> sources = new ArrayList<>();
+        private final ArrayList<Column> computed = new ArrayList<>();
+        //columns of rows gathered whole, by position in rows
+        private final Column[] gathered;
+
+        Projection(RowSet rows) {
+            this.rows = rows;
+            this.gathered = new Column[rows.getNumCols()];
+        }
+
+        /**
+         * Adds column col of the rows unchanged.
+         */
+        void pass(int col) {
+            names.add(rows.getColumnNames().get(col));
+            types.add(rows.getTypeOfColumn(col));
+            sources.add(col);
+            computed.add(null);
+        }
+
+        /**
+         * Adds a computed column.
+         */
+        void add(String name, String type, Column c) {
+            names.add(name);
+            types.add(type);
+            sources.add(-1);
+            computed.add(c);
+        }
+
+        boolean hasColumn(String name) {
+            return names.contains(name);
+        }
+
+        int indexOfColumn(String name) {
+            return names.indexOf(name);
+        }
+
+        /**
+         * Returns column col of the rows with a value for every row,
+         * gathering it on first use.
+         */
+        Column sourceColumn(int col) {
+            if (gathered[col] == null) {
+                gathered[col] = rows.getColumn(col);
+            }
+            return gathered[col];
+        }
+
+        /**
+         * Returns output column i with a value for every row.
+         */
+        Column column(int i) {
+            int source = sources.get(i);
+            return source == -1 ? computed.get(i) : sourceColumn(source);
+        }
+
+        /**
+         * Returns the rows the index on output column i finds for
+         * column op literal, or null if there is no such index.
+         */
+        int[] lookup(int i, int op, Element literal) {
+            Table t = rows.getTable();
+            int source = sources.get(i);
+            if (t == null || source == -1) {
+                return null;
+            }
+            return t.lookup(t.getColumnNames().get(source), op, literal);
+        }
+
+        /**
+         * Returns the zone map of output column i, or null if it has
+         * none.
+         */
+        ZoneMap zoneMap(int i) {
+            Table t = rows.getTable();
+            int source = sources.get(i);
+            return t == null || source == -1 ? null : t.getZoneMap(source);
+        }
+
+        /**
+         * Returns a table of the output columns holding the rows at
+         * positions[0..n), or every row if positions is null.
+         */
+        Table gather(int[] positions, int n) {
+            Table t = new Table("", new ArrayList<>(), new ArrayList<>());
+            for (int i = 0; i < names.size(); i++) {
+                int source = sources.get(i);
+                Column c;
+                if (source != -1 && gathered[source] == null) {
+                    c = rows.gather(source, positions, n);
+                } else {
+                    c = column(i);
+                    if (positions != null) {
+                        c = c.gather(positions, n);
+                    }
+                }
+                t.addColumn(names.get(i), types.get(i), c);
+            }
+            return t;
+        }
+    }
+}
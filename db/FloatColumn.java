@@ -0,0 +1,133 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Column of float values backed by a double array.
+ */
+class FloatColumn extends Column {
+
+    private double[] values;
+
+    FloatColumn(int capacity) {
+        values = new double[capacity];
+    }
+
+    /**
+     * Constructs a full column holding values, with the NaN and
+     * NOVALUE cells marked in kinds, which may be null.
+     */
+    FloatColumn(double[] values, byte[] kinds) {
+        this.values = values;
+        this.kinds = kinds;
+        this.size = values.length;
+    }
+
+    /**
+     * Returns the double stored at row.
+     */
+    double getFloat(int row) {
+        return values[row];
+    }
+
+    /**
+     * Returns the array backing the column, of which the first
+     * size() values belong to it.
+     */
+    double[] getFloats() {
+        return values;
+    }
+
+    @Override
+    int[] select(int op, Element literal, int[] candidates, int from, int to) {
+        if (literal.type() != Type.FLOAT) {
+            return null;
+        }
+        double v = literal.floatValue();
+        int[] rows = new int[to - from];
+        int count = 0;
+        for (int k = from; k < to; k++) {
+            int i = candidates == null ? k : candidates[k];
+            byte kind = kindAt(i);
+            if (kind == NAN || kind == VALUE && Element.test(op, values[i], v)) {
+                rows[count++] = i;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    @Override
+    boolean accepts(Element e) {
+        return e.type() == Type.FLOAT;
+    }
+
+    @Override
+    Element getValue(int row) {
+        return Element.ofFloat(values[row]);
+    }
+
+    @Override
+    void set(int row, Element e) {
+        values[row] = e.floatValue();
+    }
+
+    @Override
+    void copyValue(int row, Column src, int srcRow) {
+        values[row] = ((FloatColumn) src).values[srcRow];
+    }
+
+    @Override
+    void appendValue(StringBuilder sb, int row) {
+        appendFloat(sb, values[row]);
+    }
+
+    /**
+     * Appends v with three decimals to sb, the same as
+     * String.format("%.3f", v) but without going through Formatter.
+     * Values that are large or lie too close to halfway between two
+     * results to round reliably in double arithmetic are left to
+     * String.format.
+     */
+    static void appendFloat(StringBuilder sb, double v) {
+        double scaled = Math.abs(v) * 1000.0;
+        if (!(scaled < 1e9)) {
+            sb.append(String.format("%.3f", v));
+            return;
+        }
+        long whole = (long) scaled;
+        double fraction = scaled - whole;
+        if (Math.abs(fraction - 0.5) < 1e-6) {
+            sb.append(String.format("%.3f", v));
+            return;
+        }
+        long rounded = fraction > 0.5 ? whole + 1 : whole;
+        if (v < 0 || v == 0 && 1 / v < 0) {
+            sb.append('-');
+        }
+        long decimals = rounded % 1000;
+        sb.append(rounded / 1000).append('.');
+        if (decimals < 100) {
+            sb.append(decimals < 10 ? "00" : "0");
+        }
+        sb.append(decimals);
+    }
+
+    @Override
+    Column emptyCopy(int capacity) {
+        return new FloatColumn(capacity);
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    void grow(int capacity) {
+        if (values.length < capacity) {
+            int c = newCapacity(values.length, capacity);
+            values = Arrays.copyOf(values, c);
+            growKinds(c);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Column holding arbitrary elements. Used for columns whose values
+ * don't all share the column's type, e.g. int and float results of
+ * one column expression.
+ */
+class GenericColumn extends Column {
+
+    private Element[] values;
+
+    GenericColumn(int capacity) {
+        values = new Element[capacity];
+    }
+
+    @Override
+    Column append(Element e) {
+        if (shared) {
+            return copy(size).append(e);
+        }
+        grow(size + 1);
+        values[size++] = e;
+        return this;
+    }
+
+    @Override
+    Element get(int row) {
+        return values[row];
+    }
+
+    @Override
+    byte kindAt(int row) {
+        return kindOf(values[row]);
+    }
+
+    @Override
+    void appendTo(StringBuilder sb, int row) {
+        appendValue(sb, row);
+    }
+
+    @Override
+    boolean accepts(Element e) {
+        return true;
+    }
+
+    @Override
+    Element getValue(int row) {
+        return values[row];
+    }
+
+    @Override
+    void set(int row, Element e) {
+        values[row] = e;
+    }
+
+    @Override
+    void copyValue(int row, Column src, int srcRow) {
+        values[row] = ((GenericColumn) src).values[srcRow];
+    }
+
+    @Override
+    void appendValue(StringBuilder sb, int row) {
+        Element e = values[row];
+        if (e.type() == Type.FLOAT) {
+            FloatColumn.appendFloat(sb, e.floatValue());
+        } else {
+            sb.append(e.value());
+        }
+    }
+
+    @Override
+    Column emptyCopy(int capacity) {
+        return new GenericColumn(capacity);
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    void grow(int capacity) {
+        if (values.length < capacity) {
+            values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index on one column of a table. A hash index answers ==
+ * and != conditions, an ordered index also answers <, <=, > and >=.
+ * Lookups return the rows that may satisfy a condition in ascending
+ * order, including every NaN row since NaN satisfies any comparison.
+ * Callers still check each candidate row against the condition.
+ * Lookups may run while rows are added, and only return rows below
+ * the row count of the caller's snapshot.
+ */
+class Index {
+
+    static final String HASH = "hash", ORDERED = "ordered";
+
+    private final String kind;
+    private final int column;
+    private final Type type;
+    private final Map<Element, RowList> rows;
+    private final RowList nanRows;
+
+    /**
+     * Constructs an empty index of kind HASH or ORDERED on the
+     * column at position column holding values of type.
+     */
+    Index(String kind, int column, Type type) {
+        this.kind = kind;
+        this.column = column;
+        this.type = type;
+        this.rows = kind.equals(ORDERED) ? new ConcurrentSkipListMap<>(Index::compareKeys)
+                : new ConcurrentHashMap<>();
+        this.nanRows = new RowList();
+    }
+
+    /**
+     * Returns the position of the indexed column in its table.
+     */
+    int getColumn() {
+        return column;
+    }
+
+    /**
+     * Adds row whose value in the indexed column is e.
+     * NOVALUE rows never match and are not indexed.
+     */
+    void add(Element e, int row) {
+        if (e.type() == Type.NAN) {
+            nanRows.add(row);
+        } else if (e.type() != Type.NOVALUE) {
+            rows.computeIfAbsent(e, k -> new RowList()).add(row);
+        }
+    }
+
+    /**
+     * Returns the rows out of the first numRows that may satisfy
+     * value op literal in ascending order, or null if the index can't
+     * answer the condition.
+     */
+    int[] lookup(int op, Element literal, int numRows) {
+        if (literal.type() != type) {
+            return null;
+        }
+        if (op == Element.EQ) {
+            return merge(rows.get(literal), nanRows, numRows);
+        } else if (op == Element.NE) {
+            return exclude(rows.get(literal), numRows);
+        } else if (!kind.equals(ORDERED)) {
+            return null;
+        }
+
+        //bounds are inclusive, the caller drops rows equal to literal
+        NavigableMap<Element, RowList> tree = (NavigableMap<Element, RowList>) rows;
+        boolean below = op == Element.LT || op == Element.LE;
+        Element bound = literal;
+        if (type == Type.FLOAT && literal.floatValue() == 0.0) {
+            //the operators treat 0.0 and -0.0 as equal, so include both
+            bound = Element.ofFloat(below ? 0.0 : -0.0);
+        }
+        Collection<RowList> range = below
+                ? tree.headMap(bound, true).values()
+                : tree.tailMap(bound, true).values();
+        int[] nans = nanRows.below(numRows);
+        int count = nans.length;
+        ArrayList<int[]> parts = new ArrayList<>();
+        for (RowList r : range) {
+            int[] part = r.below(numRows);
+            parts.add(part);
+            count += part.length;
+        }
+        int[] result = Arrays.copyOf(nans, count);
+        int n = nans.length;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Merges the rows below numRows of two ascending row lists,
+     * either of which may be null.
+     */
+    private static int[] merge(RowList a, RowList b, int numRows) {
+        int[] rowsA = a == null ? new int[0] : a.below(numRows);
+        int[] rowsB = b == null ? new int[0] : b.below(numRows);
+        int[] result = new int[rowsA.length + rowsB.length];
+        int i = 0, j = 0, n = 0;
+        while (i < rowsA.length && j < rowsB.length) {
+            result[n++] = rowsA[i] < rowsB[j] ? rowsA[i++] : rowsB[j++];
+        }
+        while (i < rowsA.length) {
+            result[n++] = rowsA[i++];
+        }
+        while (j < rowsB.length) {
+            result[n++] = rowsB[j++];
+        }
+        return result;
+    }
+
+    /**
+     * Returns every row below numRows that is not in equal.
+     */
+    private static int[] exclude(RowList equal, int numRows) {
+        int[] rows = equal == null ? new int[0] : equal.below(numRows);
+        int size = rows.length;
+        int[] result = new int[numRows - size];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (next < size && rows[next] == i) {
+                next++;
+            } else {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Orders the keys of an ordered index. Floats are ordered by
+     * Double.compare, which tells 0.0 and -0.0 apart like ==.
+     */
+    private static int compareKeys(Element a, Element b) {
+        switch (a.type()) {
+            case INT:
+                return Integer.compare(a.intValue(), b.intValue());
+            case FLOAT:
+                return Double.compare(a.floatValue(), b.floatValue());
+            default:
+                return a.stringValue().compareTo(b.stringValue());
+        }
+    }
+
+    /**
+     * Growable list of row numbers in ascending order, written by one
+     * thread at a time and read by any number. A row is stored before
+     * the array and then the size are published, so a reader that
+     * reads size before rows sees at least size valid rows.
+     */
+    private static class RowList {
+        volatile int[] rows = new int[4];
+        volatile int size;
+
+        void add(int row) {
+            int[] r = rows;
+            int n = size;
+            if (n == r.length) {
+                r = Arrays.copyOf(r, n * 2);
+            }
+            r[n] = row;
+            rows = r;
+            size = n + 1;
+        }
+
+        /**
+         * Returns the rows below numRows.
+         */
+        int[] below(int numRows) {
+            int n = size;
+            int[] r = rows;
+            int index = Arrays.binarySearch(r, 0, n, numRows);
+            return Arrays.copyOf(r, index >= 0 ? index : -index - 1);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Column of int values backed by an int array.
+ */
+class IntColumn extends Column {
+
+    private int[] values;
+
+    IntColumn(int capacity) {
+        values = new int[capacity];
+    }
+
+    /**
+     * Constructs a full column holding values, with the NaN and
+     * NOVALUE cells marked in kinds, which may be null.
+     */
+    IntColumn(int[] values, byte[] kinds) {
+        this.values = values;
+        this.kinds = kinds;
+        this.size = values.length;
+    }
+
+    /**
+     * Returns the int stored at row.
+     */
+    int getInt(int row) {
+        return values[row];
+    }
+
+    /**
+     * Returns the array backing the column, of which the first
+     * size() values belong to it.
+     */
+    int[] getInts() {
+        return values;
+    }
+
+    @Override
+    int[] select(int op, Element literal, int[] candidates, int from, int to) {
+        if (literal.type() != Type.INT) {
+            return null;
+        }
+        int v = literal.intValue();
+        int[] rows = new int[to - from];
+        int count = 0;
+        for (int k = from; k < to; k++) {
+            int i = candidates == null ? k : candidates[k];
+            byte kind = kindAt(i);
+            if (kind == NAN || kind == VALUE && Element.test(op, Integer.compare(values[i], v))) {
+                rows[count++] = i;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    @Override
+    boolean accepts(Element e) {
+        return e.type() == Type.INT;
+    }
+
+    @Override
+    Element getValue(int row) {
+        return Element.ofInt(values[row]);
+    }
+
+    @Override
+    void set(int row, Element e) {
+        values[row] = e.intValue();
+    }
+
+    @Override
+    void copyValue(int row, Column src, int srcRow) {
+        values[row] = ((IntColumn) src).values[srcRow];
+    }
+
+    @Override
+    void appendValue(StringBuilder sb, int row) {
+        sb.append(values[row]);
+    }
+
+    @Override
+    Column emptyCopy(int capacity) {
+        return new IntColumn(capacity);
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    void grow(int capacity) {
+        if (values.length < capacity) {
+            int c = newCapacity(values.length, capacity);
+            values = Arrays.copyOf(values, c);
+            growKinds(c);
+        }
+    }
+}
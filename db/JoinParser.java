@@ -1,7 +1,8 @@
 package db;
 
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Manages the operations associated with select
@@ -10,92 +11,192 @@ import java.util.Stack;
 class JoinParser {
 
     /**
-     * Recursively joins two tables at a time and
-     * eventually returns one completely joined table.
+     * Joins the tables in from two at a time, in the order given by
+     * order, see Planner.joinOrder. The result is the same as joining
+     * them left to right: its rows are ordered by the row of from[0]
+     * they are built from, then of from[1] and so on, and its columns
+     * are those of the tables left to right with shared columns first.
+     * The joined rows are described by the rows they are built from,
+     * no values are copied.
      */
-    static Table join(Stack<Table> tables) {
-        if (tables.size() == 1) {
-            return tables.pop();
-        } else {
-            Table firstTwo = join(tables.pop(), tables.pop());
-            tables.push(firstTwo);
-            return join(tables);
-        }
+    static RowSet join(RowSet[] from, int[] order) throws ParsingException {
+        return join(from, order, null);
     }
 
     /**
-     * Joins the tables t1 and t2
+     * Joins the tables in from like join(from, order). If profile isn't
+     * null it holds the operator that produced each table of from, and
+     * every join is measured; profile[0] is then set to the operator
+     * that produced the result.
      */
-    private static Table join(Table t1, Table t2) {
-        ArrayList<String> shared = sharedColumns(t1, t2);
-        Table joined = permutationTable(t1, t2);
-
-        if (shared.size() == 0) {
+    static RowSet join(RowSet[] from, int[] order, OperatorProfile[] profile)
+            throws ParsingException {
+        RowSet joined = from[order[0]];
+        OperatorProfile op = profile == null ? null : profile[order[0]];
+        boolean inOrder = order[0] == 0;
+        for (int k = 1; k < order.length; k++) {
+            RowSet next = from[order[k]];
+            OperatorProfile joining = null;
+            if (profile != null) {
+                ArrayList<String> shared = sharedColumns(joined, next);
+                joining = new OperatorProfile(shared.isEmpty() ? "cartesian product"
+                        : "join on " + String.join(", ", shared),
+                        (long) joined.getNumRows() + next.getNumRows(), op, profile[order[k]]);
+            }
+            joined = join(joined, next);
+            if (joining != null) {
+                joining.stop(joined.getNumRows());
+                op = joining;
+            }
+            inOrder &= order[k] == k;
+        }
+        if (inOrder) {
+            if (profile != null) {
+                profile[0] = op;
+            }
             return joined;
-        } else {
-            //remove duplicate rows
-            Table sharedRowsTable = new Table("", joined.getColumnNames(), joined.getColumnTypes());
-            boolean allShared = true;
-            for (int row = 0; row < joined.getNumRows(); row++) {
-                for (String aShared : shared) {
-                    int index1 = t1.indexOfColumn(aShared);
-                    int index2 = t1.getNumCols() + t2.indexOfColumn(aShared);
-
-                    if (!joined.getRow(row).getElement(index1)
-                            .equalElements(joined.getRow(row).getElement(index2))) {
-                        allShared = false;
-                    }
-                }
-                if (allShared) {
-                    sharedRowsTable.addRowToTable(joined.getRow(row));
+        }
+
+        //the columns joining left to right gives
+        ArrayList<String> names = new ArrayList<>(from[0].getColumnNames());
+        for (int i = 1; i < from.length; i++) {
+            ArrayList<String> next = from[i].getColumnNames();
+            ArrayList<String> columns = new ArrayList<>(names.size() + next.size());
+            for (String name : names) {
+                if (next.contains(name)) {
+                    columns.add(name);
                 }
-                allShared = true;
             }
-            //add shared columns to finalTable
-            joined = new Table("", new ArrayList<>(), new ArrayList<>());
-            for (String name : shared) {
-                Table.copyColumn(sharedRowsTable, joined, name);
+            for (String name : names) {
+                if (!next.contains(name)) {
+                    columns.add(name);
+                }
             }
-            //add non-shared columns to finalTable
-            for (int i = 0; i < sharedRowsTable.getNumCols(); i++) {
-                String name = sharedRowsTable.getColumnNames().get(i);
-                if (shared.indexOf(name) == -1) {
-                    Table.copyColumn(sharedRowsTable, joined, name);
+            for (String name : next) {
+                if (!names.contains(name)) {
+                    columns.add(name);
                 }
             }
-            return joined;
+            names = columns;
+        }
+        OperatorProfile reordering = profile == null ? null
+                : new OperatorProfile("reorder", joined.getNumRows(), op);
+        RowSet reordered = joined.reorder(order, names);
+        if (reordering != null) {
+            reordering.stop(reordered.getNumRows());
+            profile[0] = reordering;
         }
+        return reordered;
     }
+
     /**
-     * Returns all permutations of t1 and t2 tables.
+     * Joins the tables t1 and t2. Rows of t2 are hashed on the shared
+     * columns and every row of t1 probes that hash table, so only
+     * matching pairs are ever built. Tables that share no columns
+     * fall back to the cartesian product.
      */
-    private static Table permutationTable(Table t1, Table t2) {
-        ArrayList<String> colN = new ArrayList<>(t1.getNumCols() + t2.getNumCols());
-        ArrayList<String> colT = new ArrayList<>(t1.getNumCols() + t2.getNumCols());
-        for (int i = 0; i < t1.getColumnNames().size(); i++) {
-            colN.add(t1.getColumnNames().get(i));
-            colT.add(t1.getColumnTypes().get(i));
+    private static RowSet join(RowSet t1, RowSet t2) throws ParsingException {
+        ArrayList<String> shared = sharedColumns(t1, t2);
+        if (shared.size() == 0) {
+            return permutationTable(t1, t2);
+        }
+
+        int[] keys1 = new int[shared.size()];
+        int[] keys2 = new int[shared.size()];
+        for (int i = 0; i < shared.size(); i++) {
+            keys1[i] = t1.indexOfColumn(shared.get(i));
+            keys2[i] = t2.indexOfColumn(shared.get(i));
+        }
+
+        //build - rows of t2 grouped by their shared values, in row order
+        HashMap<JoinKey, ArrayList<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < t2.getNumRows(); i++) {
+            buckets.computeIfAbsent(new JoinKey(t2, i, keys2), k -> new ArrayList<>()).add(i);
         }
-        for (int i = 0; i < t2.getColumnNames().size(); i++) {
-            colN.add(t2.getColumnNames().get(i));
-            colT.add(t2.getColumnTypes().get(i));
+
+        //probe - rows of t1 in order, so the output keeps t1-major order
+        int[] rows1 = new int[16];
+        int[] rows2 = new int[16];
+        int n = 0;
+        for (int i = 0; i < t1.getNumRows(); i++) {
+            ArrayList<Integer> matches = buckets.get(new JoinKey(t1, i, keys1));
+            if (matches == null) {
+                continue;
+            }
+            for (int j : matches) {
+                if (n == rows1.length) {
+                    int capacity = (int) Math.min(Integer.MAX_VALUE, n * 2L);
+                    if (capacity == n) {
+                        throw new ParsingException("ERROR: Join on " + String.join(", ", shared)
+                                + " is too large");
+                    }
+                    rows1 = Arrays.copyOf(rows1, capacity);
+                    rows2 = Arrays.copyOf(rows2, capacity);
+                }
+                rows1[n] = i;
+                rows2[n] = j;
+                n++;
+            }
         }
-        Table permutate = new Table("", colN, colT);
 
+        //shared columns first, then the rest of t1, then the rest of t2
+        int[] cols1 = new int[keys1.length + t1.getNumCols()];
+        int c = 0;
+        for (int index : keys1) {
+            cols1[c++] = index;
+        }
+        for (int i = 0; i < t1.getNumCols(); i++) {
+            if (shared.indexOf(t1.getColumnNames().get(i)) == -1) {
+                cols1[c++] = i;
+            }
+        }
+        return RowSet.combine(t1, rows1, Arrays.copyOf(cols1, c), t2, rows2,
+                otherColumns(t2, shared), n);
+    }
+
+    /**
+     * Returns all permutations of t1 and t2 tables, failing if there
+     * are more than fit in an array.
+     */
+    private static RowSet permutationTable(RowSet t1, RowSet t2) throws ParsingException {
         //all combinations of rows
+        long size = (long) t1.getNumRows() * t2.getNumRows();
+        if (size > Integer.MAX_VALUE) {
+            throw new ParsingException("ERROR: Cartesian product of " + t1.getNumRows()
+                    + " and " + t2.getNumRows() + " rows is too large");
+        }
+        int n = (int) size;
+        int[] rows1 = new int[n];
+        int[] rows2 = new int[n];
         for (int i = 0; i < t1.getNumRows(); i++) {
             for (int j = 0; j < t2.getNumRows(); j++) {
-                Row r = t1.getRow(i).combineTwoRows(t2.getRow(j));
-                permutate.addRowToTable(r);
+                rows1[i * t2.getNumRows() + j] = i;
+                rows2[i * t2.getNumRows() + j] = j;
             }
         }
-        return permutate;
+        return RowSet.combine(t1, rows1, otherColumns(t1, new ArrayList<>()),
+                t2, rows2, otherColumns(t2, new ArrayList<>()), n);
     }
+
+    /**
+     * Returns the positions of the columns of t that aren't in shared.
+     */
+    private static int[] otherColumns(RowSet t, ArrayList<String> shared) {
+        int[] cols = new int[t.getNumCols()];
+        int c = 0;
+        for (int i = 0; i < t.getNumCols(); i++) {
+            if (shared.indexOf(t.getColumnNames().get(i)) == -1) {
+                cols[c++] = i;
+            }
+        }
+        return Arrays.copyOf(cols, c);
+    }
+
     /**
      * Returns an arrayList of the names of columns that are shared
      * between table t1, and table t2
      */
-    private static ArrayList<String> sharedColumns(Table t1, Table t2) {
+    private static ArrayList<String> sharedColumns(RowSet t1, RowSet t2) {
         ArrayList<String> shared = new ArrayList<>(Math.max(t1.getNumCols(), t2.getNumCols()));
         for (String i : t1.getColumnNames()) {
             for (String j : t2.getColumnNames()) {
@@ -106,6 +207,43 @@ class JoinParser {
         }
         return shared;
     }
-}
 
+    /**
+     * The values of a row's shared columns, used as a hash key.
+     * Two keys are equal exactly when every pair of elements
+     * satisfies Element.equalElements.
+     */
+    private static class JoinKey {
+        private Element[] elements;
+        private int hash;
+
+        JoinKey(RowSet t, int row, int[] indices) {
+            elements = new Element[indices.length];
+            int h = 1;
+            for (int i = 0; i < indices.length; i++) {
+                elements[i] = t.getElement(row, indices[i]);
+                h = 31 * h + elements[i].hashCode();
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
 
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof JoinKey)) {
+                return false;
+            }
+            JoinKey other = (JoinKey) o;
+            for (int i = 0; i < elements.length; i++) {
+                if (!elements[i].equalElements(other.elements[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
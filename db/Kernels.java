@@ -0,0 +1,272 @@
+package db;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arithmetic over whole int and float columns. Rows are processed in
+ * batches of BATCH_SIZE: a tight loop applies the operator to every
+ * value of a batch, which the JIT can unroll and vectorize, and a
+ * second loop patches the rows the kind masks mark as NaN or NOVALUE.
+ * The results are the same as those of Element.arithmetic row by row.
+ */
+class Kernels {
+
+    static final int BATCH_SIZE = 1024;
+
+    /**
+     * Returns left op right for the first n rows, where right is a
+     * column or, if it is null, literal. Returns null if the operands
+     * aren't int and float columns and values, which is left to
+     * Element.arithmetic.
+     */
+    static Column arithmetic(Column left, Column right, Element literal, int op, int n)
+            throws ParsingException {
+        Type leftType = typeOf(left);
+        Type rightType = right != null ? typeOf(right) : literal.type();
+        if (leftType == null || (rightType != Type.INT && rightType != Type.FLOAT)) {
+            return null;
+        }
+        boolean mixed = leftType != rightType;
+        if (mixed && (left.hasKinds() || right != null && right.hasKinds())) {
+            //a NOVALUE operand gives a result of the other operand's type
+            return null;
+        }
+
+        byte[] kinds = new byte[n];
+        byte[] leftKinds = left.getKinds();
+        byte[] rightKinds = right != null ? right.getKinds() : null;
+        List<Integer> nulls;
+        Column result;
+        if (!mixed && leftType == Type.INT) {
+            int[] x = ((IntColumn) left).getInts();
+            int[] y = right != null ? ((IntColumn) right).getInts() : null;
+            int[] out = new int[n];
+            nulls = Parallel.map(n, (from, to) -> {
+                int[] constant = y == null ? filled(literal.intValue()) : null;
+                int count = 0;
+                for (int start = from; start < to; start += BATCH_SIZE) {
+                    int end = Math.min(to, start + BATCH_SIZE);
+                    int[] ys = y != null ? y : constant;
+                    int yOff = y != null ? 0 : -start;
+                    intKernel(op, x, ys, yOff, out, start, end);
+                    count += patchInts(op, x, leftKinds, ys, yOff, rightKinds, out, kinds, start, end);
+                }
+                return count;
+            });
+            result = new IntColumn(out, kinds);
+        } else {
+            double[] out = new double[n];
+            nulls = Parallel.map(n, (from, to) -> {
+                double[] leftBatch = new double[BATCH_SIZE];
+                double[] rightBatch = new double[BATCH_SIZE];
+                if (right == null) {
+                    Arrays.fill(rightBatch, literal.type() == Type.INT
+                            ? literal.intValue() : literal.floatValue());
+                }
+                int count = 0;
+                for (int start = from; start < to; start += BATCH_SIZE) {
+                    int end = Math.min(to, start + BATCH_SIZE);
+                    double[] xs = doubles(left, start, end, leftBatch);
+                    double[] ys = right != null ? doubles(right, start, end, rightBatch) : rightBatch;
+                    int xOff = xs == leftBatch ? -start : 0;
+                    int yOff = ys == rightBatch ? -start : 0;
+                    floatKernel(op, xs, xOff, ys, yOff, out, start, end);
+                    count += patchFloats(op, xs, xOff, leftKinds, ys, yOff, rightKinds, out, kinds,
+                            start, end);
+                }
+                return count;
+            });
+            result = new FloatColumn(out, kinds);
+        }
+
+        int nullCount = 0;
+        for (int count : nulls) {
+            nullCount += count;
+        }
+        if (nullCount == n) {
+            //without a single value the column keeps the type of left
+            Column c = Column.forType(leftType.toString(), n);
+            for (int i = 0; i < n; i++) {
+                c = c.append(kinds[i] == Column.NAN ? Element.nan() : Element.novalue());
+            }
+            return c;
+        } else if (nullCount == 0) {
+            return result instanceof IntColumn
+                    ? new IntColumn(((IntColumn) result).getInts(), null)
+                    : new FloatColumn(((FloatColumn) result).getFloats(), null);
+        }
+        return result;
+    }
+
+    /**
+     * Returns INT or FLOAT for int and float columns, null otherwise.
+     */
+    private static Type typeOf(Column c) {
+        if (c instanceof IntColumn) {
+            return Type.INT;
+        } else if (c instanceof FloatColumn) {
+            return Type.FLOAT;
+        }
+        return null;
+    }
+
+    private static int[] filled(int value) {
+        int[] batch = new int[BATCH_SIZE];
+        Arrays.fill(batch, value);
+        return batch;
+    }
+
+    /**
+     * Returns the values of c from start to end as doubles: the array
+     * of a float column, or the ints of an int column converted into
+     * batch starting at batch[0].
+     */
+    private static double[] doubles(Column c, int start, int end, double[] batch) {
+        if (c instanceof FloatColumn) {
+            return ((FloatColumn) c).getFloats();
+        }
+        int[] ints = ((IntColumn) c).getInts();
+        for (int i = start; i < end; i++) {
+            batch[i - start] = ints[i];
+        }
+        return batch;
+    }
+
+    /**
+     * out[i] = x[i] op y[i + yOff] for i from start to end. Division
+     * by zero leaves 0, the patch loop marks it NaN.
+     */
+    private static void intKernel(int op, int[] x, int[] y, int yOff, int[] out, int start, int end) {
+        switch (op) {
+            case Element.ADD:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i] + y[i + yOff];
+                }
+                break;
+            case Element.SUB:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i] - y[i + yOff];
+                }
+                break;
+            case Element.MUL:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i] * y[i + yOff];
+                }
+                break;
+            default:
+                for (int i = start; i < end; i++) {
+                    int d = y[i + yOff];
+                    out[i] = d == 0 ? 0 : x[i] / d;
+                }
+                break;
+        }
+    }
+
+    /**
+     * out[i] = x[i + xOff] op y[i + yOff] for i from start to end.
+     */
+    private static void floatKernel(int op, double[] x, int xOff, double[] y, int yOff,
+                                    double[] out, int start, int end) {
+        switch (op) {
+            case Element.ADD:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i + xOff] + y[i + yOff];
+                }
+                break;
+            case Element.SUB:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i + xOff] - y[i + yOff];
+                }
+                break;
+            case Element.MUL:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i + xOff] * y[i + yOff];
+                }
+                break;
+            default:
+                for (int i = start; i < end; i++) {
+                    out[i] = x[i + xOff] / y[i + yOff];
+                }
+                break;
+        }
+    }
+
+    /**
+     * Fixes the int results from start to end whose operands are NaN
+     * or NOVALUE, or that divide by zero, marking null results in
+     * kinds. Returns the number of null results.
+     */
+    private static int patchInts(int op, int[] x, byte[] xKinds, int[] y, int yOff, byte[] yKinds,
+                                 int[] out, byte[] kinds, int start, int end) {
+        if (xKinds == null && yKinds == null && op != Element.DIV) {
+            return 0;
+        }
+        int nulls = 0;
+        for (int i = start; i < end; i++) {
+            byte kx = xKinds == null ? Column.VALUE : xKinds[i];
+            byte ky = yKinds == null ? Column.VALUE : yKinds[i];
+            byte kind = Column.VALUE;
+            if (kx == Column.NAN || ky == Column.NAN) {
+                kind = Column.NAN;
+            } else if (kx == Column.NOVALUE && ky == Column.NOVALUE) {
+                kind = Column.NOVALUE;
+            } else if (kx == Column.NOVALUE) {
+                int b = y[i + yOff];
+                out[i] = op == Element.ADD ? b : op == Element.SUB ? 0 - b : 0;
+            } else if (ky == Column.NOVALUE) {
+                if (op == Element.DIV) {
+                    kind = Column.NAN;
+                } else {
+                    out[i] = op == Element.MUL ? 0 : x[i];
+                }
+            } else if (op == Element.DIV && y[i + yOff] == 0) {
+                kind = Column.NAN;
+            }
+            if (kind != Column.VALUE) {
+                kinds[i] = kind;
+                nulls++;
+            }
+        }
+        return nulls;
+    }
+
+    /**
+     * Fixes the float results from start to end whose operands are NaN
+     * or NOVALUE, or that are infinite quotients, marking null results
+     * in kinds. Returns the number of null results.
+     */
+    private static int patchFloats(int op, double[] x, int xOff, byte[] xKinds, double[] y, int yOff,
+                                   byte[] yKinds, double[] out, byte[] kinds, int start, int end) {
+        if (xKinds == null && yKinds == null && op != Element.DIV) {
+            return 0;
+        }
+        int nulls = 0;
+        for (int i = start; i < end; i++) {
+            byte kx = xKinds == null ? Column.VALUE : xKinds[i];
+            byte ky = yKinds == null ? Column.VALUE : yKinds[i];
+            byte kind = Column.VALUE;
+            if (kx == Column.NAN || ky == Column.NAN) {
+                kind = Column.NAN;
+            } else if (kx == Column.NOVALUE && ky == Column.NOVALUE) {
+                kind = Column.NOVALUE;
+            } else if (kx == Column.NOVALUE) {
+                double b = y[i + yOff];
+                out[i] = op == Element.ADD ? b : op == Element.SUB ? 0.0 - b : 0.0;
+            } else if (ky == Column.NOVALUE) {
+                if (op == Element.DIV) {
+                    kind = Column.NAN;
+                } else {
+                    out[i] = op == Element.MUL ? 0.0 : x[i + xOff];
+                }
+            } else if (op == Element.DIV && Double.isInfinite(out[i])) {
+                kind = Column.NAN;
+            }
+            if (kind != Column.VALUE) {
+                kinds[i] = kind;
+                nulls++;
+            }
+        }
+        return nulls;
+    }
+}
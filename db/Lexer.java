@@ -0,0 +1,127 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Splits a query into tokens in a single pass. Every token remembers
+ * where it starts and ends in the query, so the parser can still hand
+ * out the original text of a clause.
+ */
+class Lexer {
+
+    static final int WORD = 0, NUMBER = 1, STRING = 2, SYMBOL = 3, UNKNOWN = 4;
+
+    /**
+     * A token of type WORD, NUMBER, STRING, SYMBOL or UNKNOWN.
+     */
+    static class Token {
+        final int type;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(int type, String text, int start, int end) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns true if this is the keyword or symbol s.
+         */
+        boolean is(String s) {
+            return (type == WORD || type == SYMBOL) && text.equals(s);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Returns the tokens of query in order.
+     */
+    static ArrayList<Token> tokenize(String query) {
+        ArrayList<Token> tokens = new ArrayList<>();
+        int i = 0;
+        int n = query.length();
+        while (i < n) {
+            char c = query.charAt(i);
+            int start = i;
+            if (c == ' ') {
+                i++;
+                continue;
+            } else if (isWordStart(c)) {
+                while (i < n && isWordPart(query.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(WORD, query.substring(start, i), start, i));
+            } else if (isDigit(c) || c == '.' && i + 1 < n && isDigit(query.charAt(i + 1))) {
+                while (i < n && isDigit(query.charAt(i))) {
+                    i++;
+                }
+                if (i < n && query.charAt(i) == '.') {
+                    i++;
+                    while (i < n && isDigit(query.charAt(i))) {
+                        i++;
+                    }
+                }
+                tokens.add(new Token(NUMBER, query.substring(start, i), start, i));
+            } else if (c == '\'') {
+                int close = query.indexOf('\'', i + 1);
+                i = close == -1 ? n : close + 1;
+                int type = close == -1 ? UNKNOWN : STRING;
+                tokens.add(new Token(type, query.substring(start, i), start, i));
+            } else {
+                int length = symbolLength(query, i);
+                int type = length > 0 ? SYMBOL : UNKNOWN;
+                i += Math.max(length, 1);
+                tokens.add(new Token(type, query.substring(start, i), start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the length of the operator or punctuation symbol at i,
+     * or 0 if there is none.
+     */
+    private static int symbolLength(String query, int i) {
+        char c = query.charAt(i);
+        char next = i + 1 < query.length() ? query.charAt(i + 1) : 0;
+        switch (c) {
+            case '=':
+                return next == '=' || next == '<' || next == '>' ? 2 : 0;
+            case '!':
+                return next == '=' ? 2 : 0;
+            case '<':
+            case '>':
+                return next == '=' ? 2 : 1;
+            case ',':
+            case '(':
+            case ')':
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '?':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isWordStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+
+    private static boolean isWordPart(char c) {
+        return isWordStart(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
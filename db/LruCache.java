@@ -0,0 +1,25 @@
+package db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most capacity entries and evicts the least
+ * recently used entry once it grows beyond that.
+ */
+class LruCache<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    LruCache(int capacity) {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+    }
+}
@@ -0,0 +1,93 @@
+package db;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The wall time, rows in and out and bytes allocated of one operator of
+ * a select run by explain analyze, and the operators it reads its rows
+ * from. An operator is measured from when it is constructed until stop,
+ * after the operators it reads have stopped, so the time and bytes of
+ * each are its own. Bytes are those allocated by the calling thread,
+ * which leaves out the work of parallel scans on other threads.
+ */
+class OperatorProfile {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private final long rowsIn;
+    private final OperatorProfile[] children;
+    private final long startBytes;
+    private final long start;
+    private long rowsOut;
+    private long nanos;
+    private long bytes;
+
+    /**
+     * Starts measuring the operator name, which reads rowsIn rows from
+     * the operators children.
+     */
+    OperatorProfile(String name, long rowsIn, OperatorProfile... children) {
+        this.name = name;
+        this.rowsIn = rowsIn;
+        this.children = children;
+        this.startBytes = allocatedBytes();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring the operator, which produced rowsOut rows.
+     */
+    void stop(long rowsOut) {
+        nanos = System.nanoTime() - start;
+        long end = allocatedBytes();
+        bytes = startBytes < 0 || end < 0 ? -1 : end - startBytes;
+        this.rowsOut = rowsOut;
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far, or -1
+     * if the JVM doesn't count them.
+     */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the operators under root, one row each with root first
+     * and every operator indented under the one that reads it.
+     */
+    static Table describe(OperatorProfile root) {
+        ArrayList<String> names = new ArrayList<>(Arrays.asList("operator", "rows_in",
+                "rows_out", "time_ms", "allocated_kb"));
+        ArrayList<String> types = new ArrayList<>(Arrays.asList("string", "int", "int",
+                "float", "int"));
+        Table result = new Table("explain", names, types);
+        describe(root, "", result);
+        return result;
+    }
+
+    private static void describe(OperatorProfile op, String indent, Table result) {
+        Row r = new Row();
+        r.addElement(Element.ofString("'" + indent + op.name + "'"));
+        r.addElement(Element.ofInt((int) Math.min(Integer.MAX_VALUE, op.rowsIn)));
+        r.addElement(Element.ofInt((int) Math.min(Integer.MAX_VALUE, op.rowsOut)));
+        r.addElement(Element.ofFloat(op.nanos / 1e6));
+        r.addElement(op.bytes < 0 ? Element.novalue()
+                : Element.ofInt((int) Math.min(Integer.MAX_VALUE, op.bytes / 1024)));
+        result.addRowToTable(r);
+        for (OperatorProfile child : op.children) {
+            describe(child, indent + "  ", result);
+        }
+    }
+}
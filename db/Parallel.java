@@ -0,0 +1,112 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs work over the rows of a table in parallel. Rows are split into
+ * morsels of MORSEL_SIZE rows that are processed on a shared fork-join
+ * pool, and the results come back in row order. Tables with fewer than
+ * SERIAL_THRESHOLD rows are processed on the calling thread.
+ */
+class Parallel {
+
+    static final int MORSEL_SIZE = 1 << 14;
+    static final int SERIAL_THRESHOLD = 1 << 16;
+
+    /**
+     * Pool shared by every parallel operator.
+     */
+    static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    /**
+     * Work done on the rows from from to to (exclusive).
+     */
+    interface RangeTask<T> {
+        T apply(int from, int to) throws ParsingException;
+    }
+
+    /**
+     * Applies task to the morsels of rows 0 to n and returns the
+     * results in row order. If some morsels fail, the error of the
+     * first one is thrown, which is the error a serial loop would
+     * have run into first.
+     */
+    static <T> List<T> map(int n, RangeTask<T> task) throws ParsingException {
+        if (n < SERIAL_THRESHOLD || POOL.getParallelism() < 2) {
+            return Collections.singletonList(task.apply(0, n));
+        }
+
+        ArrayList<Morsel<T>> morsels = new ArrayList<>((n + MORSEL_SIZE - 1) / MORSEL_SIZE);
+        for (int from = 0; from < n; from += MORSEL_SIZE) {
+            Morsel<T> morsel = new Morsel<>(task, from, Math.min(n, from + MORSEL_SIZE));
+            morsels.add(morsel);
+            POOL.execute(morsel);
+        }
+
+        ArrayList<T> results = new ArrayList<>(morsels.size());
+        for (Morsel<T> morsel : morsels) {
+            T result = morsel.join();
+            if (morsel.error != null) {
+                for (Morsel<T> m : morsels) {
+                    m.cancel(false);
+                }
+                throw morsel.error;
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * A morsel of rows handed to the pool. Parse errors are kept
+     * instead of being wrapped by the pool.
+     */
+    private static class Morsel<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask<T> task;
+        private final int from;
+        private final int to;
+        private ParsingException error;
+
+        Morsel(RangeTask<T> task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected T compute() {
+            try {
+                return task.apply(from, to);
+            } catch (ParsingException e) {
+                error = e;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Concatenates row lists in order.
+     */
+    static int[] concat(List<int[]> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int size = 0;
+        for (int[] part : parts) {
+            size += part.length;
+        }
+        int[] result = new int[size];
+        int n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        return result;
+    }
+}
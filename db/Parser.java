@@ -1,14 +1,16 @@
 package db;
 
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Stack;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 /**
  * Parser handles all database related string parsing
@@ -20,32 +22,6 @@ class Parser {
 
     private Database db;
 
-    // Various common constructs, simplifies parsing.
-    private static final String REST = "\\s*(.*)\\s*",
-            COMMA = "\\s*,\\s*";
-
-    // Stage 1 syntax, contains the command name.
-    private static final Pattern CREATE_CMD = Pattern.compile("create table " + REST),
-            LOAD_CMD = Pattern.compile("load " + REST),
-            STORE_CMD = Pattern.compile("store " + REST),
-            DROP_CMD = Pattern.compile("drop table " + REST),
-            INSERT_CMD = Pattern.compile("insert into " + REST),
-            PRINT_CMD = Pattern.compile("print " + REST),
-            SELECT_CMD = Pattern.compile("select " + REST);
-
-    // Stage 2 syntax, contains the clauses of commands.
-    private static final Pattern CREATE_NEW = Pattern.compile("(\\S+)\\s+\\(\\s*(\\S+\\s+\\S+\\s*"
-            + "(?:,\\s*\\S+\\s+\\S+\\s*)*)\\)"),
-            SELECT_CLS = Pattern.compile("([^,]+?(?:,[^,]+?)*)\\s+from\\s+"
-                    + "(\\S+\\s*(?:,\\s*\\S+\\s*)*)(?:\\s+where\\s+"
-                    + "([\\w\\s+\\-*/'<>=!]+?(?:\\s+and\\s+"
-                    + "[\\w\\s+\\-*/'<>=!]+?)*))?"),
-            CREATE_SEL = Pattern.compile("(\\S+)\\s+as select\\s+"
-                    + SELECT_CLS.pattern()),
-            INSERT_CLS = Pattern.compile("(\\S+)\\s+values\\s+(.+?"
-                    + "\\s*(?:,\\s*.+?\\s*)*)");
-
-
     /**
      * Constructs a parser that is linked the database db.
      */
@@ -54,54 +30,60 @@ class Parser {
     }
 
     /**
-     * Evaluates a query and passes it to a different method
+     * Parses a normalized query into a statement that can be
+     * executed any number of times.
      */
-    String eval(String query) {
-
-        query = query.replaceAll("\\s+", " ");
-        Matcher m;
-        if ((m = CREATE_CMD.matcher(query)).matches()) {
-            return createTable(m.group(1));
-        } else if ((m = LOAD_CMD.matcher(query)).matches()) {
-            return loadTable(m.group(1));
-        } else if ((m = STORE_CMD.matcher(query)).matches()) {
-            return storeTable(m.group(1));
-        } else if ((m = DROP_CMD.matcher(query)).matches()) {
-            return dropTable(m.group(1));
-        } else if ((m = INSERT_CMD.matcher(query)).matches()) {
-            return insertRow(m.group(1));
-        } else if ((m = PRINT_CMD.matcher(query)).matches()) {
-            return printTable(m.group(1));
-        } else if ((m = SELECT_CMD.matcher(query)).matches()) {
-            return select(m.group(1));
-        } else {
-            return "Malformed query: " + query;
-        }
+    Statement parse(String query) {
+        return new StatementParser(query).parse();
     }
 
     /**
-     * Parses an expression and passes it to another parser
-     * method
+     * Collapses every run of whitespace in query into a single
+     * space, the same as replaceAll("\\s+", " ") on a trimmed query.
      */
-    private String createTable(String expr) {
-        Matcher m;
-        if ((m = CREATE_NEW.matcher(expr)).matches()) {
-            return createNewTable(m.group(1), m.group(2).split(COMMA));
-        } else if ((m = CREATE_SEL.matcher(expr)).matches()) {
-            return createSelectedTable(m.group(1), m.group(2), m.group(3), m.group(4));
-        } else {
-            return "Malformed create: " + expr;
+    static String normalize(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
         }
+        return sb.toString();
     }
 
     /**
      * Creates new table with name and cols (x int, y int..etc)
      */
-    private String createNewTable(String name, String[] cols) {
+    String createNewTable(String name, String[] cols) {
         ArrayList<String> colN = new ArrayList<>(cols.length);
         ArrayList<String> colT = new ArrayList<>(cols.length);
-        String possibleTypes = "intstringfloat";
+        String error = parseColumns(cols, colN, colT);
+        if (error != null) {
+            return error;
+        }
 
+        try {
+            db.createNewTable(name, colN, colT);
+            return "";
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Splits column definitions (x int, y int..etc) into their
+     * names and types. Returns an error or null if all are valid.
+     */
+    static String parseColumns(String[] cols, ArrayList<String> colN, ArrayList<String> colT) {
+        String possibleTypes = "intstringfloat";
 
         for (String col : cols) {
             col = col.trim().replaceAll("\\s+"," ");
@@ -114,9 +96,20 @@ class Parser {
             colN.add(pieces[0]);
             colT.add(pieces[1]);
         }
+        return null;
+    }
 
+    /**
+     * Creates a new table and adds it to the database from
+     * a select statement.
+     */
+    String createSelectedTable(String name, Statement.Select select, String[] params) {
         try {
-            db.createNewTable(name, colN, colT);
+            Table[] from = db.snapshot(select.getTables());
+            //columns shared with the snapshots are copied once rows are added
+            Table t = selectReturnTable(select, from, params);
+            t.setName(name);
+            db.addTable(t);
             return "";
         } catch (ParsingException e) {
             return e.getMessage();
@@ -124,14 +117,12 @@ class Parser {
     }
 
     /**
-     * Creates a new table and adds it to the database from
-     * a select statement.
+     * Creates a materialized view called name holding the result of
+     * select, which is kept up to date as rows are inserted.
      */
-    private String createSelectedTable(String name, String exprs, String tables, String conds) {
+    String createView(String name, Statement.Select select) {
         try {
-            Table t = selectReturnTable(exprs, tables, conds);
-            t.setName(name);
-            db.addTable(t);
+            db.createView(name, select);
             return "";
         } catch (ParsingException e) {
             return e.getMessage();
@@ -141,7 +132,7 @@ class Parser {
     /**
      * Drops table from database
      */
-    private String dropTable(String name) {
+    String dropTable(String name) {
         try {
             db.dropTable(name);
             return "";
@@ -151,16 +142,33 @@ class Parser {
     }
 
     /**
-     * Inserts a row into a table by expr
+     * Builds an index of kind on column of table name
      */
-    private String insertRow(String expr) {
-        Matcher m = INSERT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "Malformed insert: " + expr;
+    String createIndex(String name, String column, String kind) {
+        try {
+            db.createIndex(name, column, kind);
+            return "";
+        } catch (ParsingException e) {
+            return e.getMessage();
         }
+    }
 
-        String tableName = m.group(1);
-        String[] values = m.group(2).split(COMMA);
+    /**
+     * Drops the index on column of table name
+     */
+    String dropIndex(String name, String column) {
+        try {
+            db.dropIndex(name, column);
+            return "";
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Inserts a row of values into a table
+     */
+    String insertRow(String tableName, String[] values) {
         try {
             db.addRow(tableName, values);
             return "";
@@ -173,71 +181,195 @@ class Parser {
      * returns the string representation of
      * a table object.
      */
-    private String printTable(String name) {
+    String printTable(String name) {
         try {
-            return db.getTable(name).toString();
+            return tableToString(name);
         } catch (ParsingException e) {
             return e.getMessage();
         }
     }
 
     /**
-     * checks for select query correctness than passes it
-     * to further helper select methods.
+     * Returns the statistics of the columns of table name.
      */
-    private String select(String expr) {
-        Matcher m = SELECT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "Malformed select: " + expr;
+    String printStats(String name) {
+        try {
+            return ColumnStats.describe(db.snapshot(new String[]{name})[0]).toString();
+        } catch (ParsingException e) {
+            return e.getMessage();
         }
-        return selectReturnString(m.group(1), m.group(2), m.group(3));
+    }
+
+    /**
+     * Writes table name to out, or the error if there is none.
+     */
+    boolean printTable(String name, Appendable out) throws IOException {
+        Table t;
+        try {
+            t = db.snapshot(new String[]{name})[0];
+        } catch (ParsingException e) {
+            out.append(e.getMessage());
+            return true;
+        }
+        t.writeTo(out);
+        return true;
+    }
+
+    /**
+     * Writes the result of a select query to out, or the error
+     * if it fails.
+     */
+    boolean selectTo(Statement.Select select, String[] params, Appendable out)
+            throws IOException {
+        Table t;
+        try {
+            t = cachedSelect(select, params);
+        } catch (ParsingException e) {
+            out.append(e.getMessage());
+            return true;
+        }
+        t.writeTo(out);
+        return true;
     }
 
     /**
      * handles a select query and catches exception
      */
-    private String selectReturnString(String exprs, String tables, String conds) {
+    String selectReturnString(Statement.Select select, String[] params) {
         try {
-            return selectReturnTable(exprs, tables, conds).toString();
+            return cachedSelect(select, params).toString();
         } catch (ParsingException e) {
             return e.getMessage();
         }
     }
 
+    /**
+     * Returns the result of a select on snapshots of its tables,
+     * reusing the cached result if the tables haven't changed since
+     * it was computed. The result is shared and must not be changed.
+     */
+    private Table cachedSelect(Statement.Select select, String[] params)
+            throws ParsingException {
+        Table[] from = db.snapshot(select.getTables());
+        String key = select.getCacheKey(params);
+        ResultCache cache = db.getResultCache();
+        Table t = cache.get(key, from);
+        if (t == null) {
+            t = selectReturnTable(select, from, params);
+            cache.put(key, from, t);
+        }
+        return t;
+    }
+
+    /**
+     * Returns the text of a snapshot of table name.
+     */
+    private String tableToString(String name) throws ParsingException {
+        return db.snapshot(new String[]{name})[0].toString();
+    }
+
     /**
      * Returns a table based of the column expressions, joined
-     * tables, and where clause conditions. Throws exceptions.
+     * tables from, and where clause conditions. from holds
+     * snapshots, which are read without locking. Throws exceptions.
      */
-    private Table selectReturnTable(String exprs, String tables, String conds)
+    Table selectReturnTable(Statement.Select select, Table[] from, String[] params)
             throws ParsingException {
+        return selectReturnTable(select, from, params, null);
+    }
 
-        String[] names = tables.split(",");
-        Stack<Table> stack = new Stack<>();
-        for (int i = names.length - 1; i >= 0; i--) {
-            Table t = db.getTable(names[i].trim());
-            if (t == null) {
-                throw new ParsingException("ERROR: No such table " + names[i].trim());
+    /**
+     * Returns the result of select like selectReturnTable. If profile
+     * isn't null, it has an element for every table of from and every
+     * operator is measured; profile[0] is then set to the operator
+     * that produced the result.
+     */
+    private Table selectReturnTable(Statement.Select select, Table[] from, String[] params,
+                                    OperatorProfile[] profile) throws ParsingException {
+
+        ArrayList<ColumnExpression> exprs = select.getExprs();
+
+        //scan - every row of every table
+        RowSet[] inputs = new RowSet[from.length];
+        for (int i = 0; i < from.length; i++) {
+            OperatorProfile scan = profile == null ? null
+                    : new OperatorProfile("scan " + from[i].getName(), from[i].getNumRows());
+            inputs[i] = new RowSet(from[i]);
+            if (scan != null) {
+                scan.stop(inputs[i].getNumRows());
+                profile[i] = scan;
             }
-            stack.push(t);
         }
 
-        //joins - joins a stack of tables together
-        Table result = JoinParser.join(stack);
+        //plan - filter single tables with the conditions that allow it
+        ArrayList<Condition> remaining = Planner.pushDown(inputs, exprs,
+                select.getConditions(params), profile);
+
+        //joins - joins the tables in an order that avoids cartesian products
+        RowSet joined = JoinParser.join(inputs, Planner.joinOrder(inputs, from), profile);
 
-        //evaluate - column expressions and where conditions
-        result = ExpressionParser.parse(result, exprs, conds);
+        //evaluate - column expressions and remaining where conditions,
+        //gathering the output columns at the rows that are left
+        OperatorProfile project = null;
+        if (profile != null) {
+            StringBuilder name = new StringBuilder("project");
+            for (int i = 0; i < remaining.size(); i++) {
+                name.append(i == 0 ? " where " : " and ").append(remaining.get(i));
+            }
+            project = new OperatorProfile(name.toString(), joined.getNumRows(), profile[0]);
+        }
+        Table result = ExpressionParser.parse(joined, exprs, remaining);
+        if (project != null) {
+            project.stop(result.getNumRows());
+            profile[0] = project;
+        }
         return result;
     }
 
+    /**
+     * Runs select and returns its operators with the time, rows and
+     * allocated bytes of each, ending with rendering the result as
+     * text. The result cache isn't used.
+     */
+    String explainAnalyze(Statement.Select select, String[] params) {
+        try {
+            Table[] from = db.snapshot(select.getTables());
+            OperatorProfile[] profile = new OperatorProfile[from.length];
+            Table t = selectReturnTable(select, from, params, profile);
+            OperatorProfile render = new OperatorProfile("render", t.getNumRows(), profile[0]);
+            t.toString();
+            render.stop(t.getNumRows());
+            return OperatorProfile.describe(render).toString();
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+    }
+
     /**
      * Stores table to file
      */
-    private String storeTable(String name) {
+    String storeTable(String name) {
+        try {
+            Table t = db.snapshot(new String[]{name})[0];
+            try (Writer writer = Files.newBufferedWriter(Paths.get(name + ".tbl"),
+                    StandardCharsets.UTF_8)) {
+                t.writeTo(writer);
+            }
+            return "";
+        } catch (IOException e) {
+            return "ERROR: writing table to file: " + name;
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Stores table to file in the binary table format
+     */
+    String storeBinaryTable(String name) {
         try {
-            String data = db.getTable(name).toString();
-            PrintWriter writer = new PrintWriter(name + ".tbl", "UTF-8");
-            writer.print(data);
-            writer.close();
+            Table t = db.snapshot(new String[]{name})[0];
+            TableFile.write(t, name + TableFile.EXTENSION);
             return "";
         } catch (IOException e) {
             return "ERROR: writing table to file: " + name;
@@ -246,43 +378,96 @@ class Parser {
         }
     }
 
+    /**
+     * Loads tableName.tbin from file and replaces any table
+     * of the same name with it.
+     */
+    String loadBinaryTable(String tableName) {
+        String filename = tableName + TableFile.EXTENSION;
+        try {
+            db.putTable(TableFile.read(tableName, filename));
+            return "";
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            return "ERROR: Cannot open file " + filename;
+        } catch (IOException e) {
+            return "ERROR: Unable to parse file " + filename;
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+    }
+
     /**
      * Loads tableName.tbl from file, creates table and adds
-     * rows to it.
+     * rows to it. Rows are parsed in parallel by TableLoader.
      */
-    private String loadTable(String tableName) {
+    String loadTable(String tableName) {
         String filename = tableName + ".tbl";
+        try {
+            if (TableLoader.load(db, tableName, filename)) {
+                return "";
+            }
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            return "ERROR: Cannot open file " + filename;
+        } catch (IOException e) {
+            //left to the row by row loader, which reports it
+        } catch (ParsingException e) {
+            return e.getMessage();
+        }
+        return loadTableByRow(tableName, filename);
+    }
+
+    /**
+     * Loads filename by inserting its rows one by one. Used for files
+     * the bulk loader can't handle, such as ones with a bad header.
+     */
+    private String loadTableByRow(String tableName, String filename) {
         BufferedReader br;
         String line;
+        Table t = null;
+        String result;
 
         try {
             br = new BufferedReader(new FileReader(filename));
             line = br.readLine();
 
-            //drop table if already exists
-            if (db.hasTable(tableName)) {
+            //create table, it replaces the old one once its rows are read
+            String[] cols = line.split(",");
+            ArrayList<String> colN = new ArrayList<>(cols.length);
+            ArrayList<String> colT = new ArrayList<>(cols.length);
+            if (parseColumns(cols, colN, colT) == null) {
+                t = new Table(tableName, colN, colT);
+            } else if (db.hasTable(tableName)) {
                 db.dropTable(tableName);
             }
 
-            //create table
-            String[] cols = line.split(",");
-            createNewTable(tableName, cols);
-
             //inserting rows
             line = br.readLine();
             while (line != null) {
+                if (t == null) {
+                    throw new ParsingException("ERROR: No such table " + tableName);
+                }
                 String[] values = line.split(",");
-                db.addRow(tableName, values);
+                t.addRowToTable(values);
                 line = br.readLine();
             }
             br.close();
-            return "";
+            result = "";
         } catch (FileNotFoundException e) {
-            return "ERROR: Cannot open file " + filename;
+            result = "ERROR: Cannot open file " + filename;
         } catch (IOException e) {
-            return "ERROR: Unable to parse file " + filename;
+            result = "ERROR: Unable to parse file " + filename;
         } catch (ParsingException e) {
-            return e.getMessage();
+            result = e.getMessage();
         }
+
+        //the rows read before an error are kept
+        if (t != null) {
+            try {
+                db.putTable(t);
+            } catch (ParsingException e) {
+                return e.getMessage();
+            }
+        }
+        return result;
     }
 }
@@ -0,0 +1,254 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Plans select statements before they are executed. Where conditions
+ * that only read the columns of one table are applied to that table
+ * before any joins, so the joins work on fewer rows. The filtered
+ * tables are sets of row numbers, no values are copied. The tables
+ * are then joined in an order that avoids cartesian products. Column
+ * statistics order the filters of a table and the joins by their
+ * estimated number of rows.
+ */
+class Planner {
+
+    /**
+     * Filters the tables in from with every condition in conds that can
+     * be evaluated on a single table and returns the conditions that
+     * still have to be evaluated after the join and the column
+     * expressions. Conditions are pushed down only if they read columns
+     * that the column expressions pass through unchanged and if their
+     * operands have comparable types, so they select exactly the rows
+     * they would have selected after the join. If profile isn't null it
+     * holds the operator that produced each table of from, which is
+     * replaced by the filters applied to it.
+     */
+    static ArrayList<Condition> pushDown(RowSet[] from, ArrayList<ColumnExpression> exprs,
+                                         ArrayList<Condition> conds, OperatorProfile[] profile)
+            throws ParsingException {
+        HashSet<String> outputs = new HashSet<>();
+        HashSet<String> passed = passedColumns(from, exprs, outputs);
+
+        ArrayList<Condition> remaining = new ArrayList<>();
+        ArrayList<ArrayList<Condition>> pushed = new ArrayList<>(from.length);
+        for (int i = 0; i < from.length; i++) {
+            pushed.add(new ArrayList<>());
+        }
+        for (Condition c : conds) {
+            boolean isPushed = false;
+            if (isPushable(c, passed, outputs)) {
+                for (int i = 0; i < from.length; i++) {
+                    if (canEvaluate(from[i], c, outputs)) {
+                        pushed.get(i).add(c);
+                        isPushed = true;
+                    }
+                }
+            }
+            if (!isPushed) {
+                remaining.add(c);
+            }
+        }
+
+        //the most selective conditions of a table go first, so later
+        //ones look at fewer rows
+        for (int i = 0; i < from.length; i++) {
+            Table t = from[i].getTable();
+            ArrayList<Condition> tableConds = pushed.get(i);
+            if (t != null && tableConds.size() > 1) {
+                tableConds.sort(Comparator.comparingDouble(c -> selectivity(t, c)));
+            }
+            for (Condition c : tableConds) {
+                OperatorProfile filter = profile == null ? null
+                        : new OperatorProfile((t == null ? "filter" : "filter " + t.getName())
+                        + " where " + c, from[i].getNumRows(), profile[i]);
+                from[i] = ExpressionParser.evaluateWhere(from[i], c);
+                if (filter != null) {
+                    filter.stop(from[i].getNumRows());
+                    profile[i] = filter;
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the estimated fraction of the rows of t that satisfy c,
+     * which canEvaluate accepted for t.
+     */
+    private static double selectivity(Table t, Condition c) {
+        ColumnStats stats = t.getStats(t.indexOfColumn(c.getLeft()));
+        if (stats == null) {
+            return 1.0;
+        } else if (t.hasColumn(c.getRight())) {
+            return 1.0 / 3;
+        }
+        try {
+            return stats.selectivity(Element.comparisonCode(c.getOperator()),
+                    Element.createFromLiteral(c.getRight()));
+        } catch (ParsingException e) {
+            return 1.0;
+        }
+    }
+
+    /**
+     * Returns the order to join the tables in from in, where tables
+     * holds the table each set of rows is taken from. Starting with
+     * the set with the fewest rows, the next set is always the one
+     * that shares a column with the sets joined so far and gives the
+     * smallest estimated join, so sets without a shared column are only
+     * multiplied in once nothing else is left. Natural joins give the
+     * same rows in any order; JoinParser puts them back in the order of
+     * from. With fewer than three tables, or when a table has two
+     * columns of the same name, the tables are joined as written.
+     */
+    static int[] joinOrder(RowSet[] from, Table[] tables) {
+        int[] order = new int[from.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (from.length < 3) {
+            return order;
+        }
+        for (RowSet t : from) {
+            if (new HashSet<>(t.getColumnNames()).size() != t.getNumCols()) {
+                return order;
+            }
+        }
+
+        //estimated rows and distinct values of each column joined so far
+        double rows = 0;
+        HashMap<String, Double> distinct = new HashMap<>();
+        boolean[] used = new boolean[from.length];
+        for (int k = 0; k < order.length; k++) {
+            int next = -1;
+            double nextRows = 0;
+            boolean nextShares = false;
+            for (int i = 0; i < from.length; i++) {
+                if (used[i]) {
+                    continue;
+                }
+                boolean shares = !Collections.disjoint(distinct.keySet(), from[i].getColumnNames());
+                double joined = k == 0 ? from[i].getNumRows()
+                        : estimateJoin(rows, distinct, from[i], tables[i]);
+                if (next == -1 || shares && !nextShares || shares == nextShares
+                        && joined < nextRows) {
+                    next = i;
+                    nextRows = joined;
+                    nextShares = shares;
+                }
+            }
+            order[k] = next;
+            used[next] = true;
+            for (String name : from[next].getColumnNames()) {
+                double d = Math.min(distinct(from[next], tables[next], name), nextRows);
+                distinct.merge(name, d, Math::min);
+            }
+            rows = nextRows;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the estimated number of rows of joining rows rows, whose
+     * columns have distinct values, with t: every shared column with
+     * the fewest distinct values on one side keeps one in that many
+     * of the pairs of rows.
+     */
+    private static double estimateJoin(double rows, HashMap<String, Double> distinct, RowSet t,
+                                       Table table) {
+        double joined = rows * t.getNumRows();
+        for (String name : t.getColumnNames()) {
+            Double d = distinct.get(name);
+            if (d != null) {
+                joined /= Math.max(1.0, Math.max(d, distinct(t, table, name)));
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Returns the estimated number of distinct values of column name
+     * in the rows t holds of table.
+     */
+    private static double distinct(RowSet t, Table table, String name) {
+        ColumnStats stats = table.getStats(table.indexOfColumn(name));
+        double d = stats == null ? t.getNumRows() : stats.getDistinct();
+        return Math.min(d, t.getNumRows());
+    }
+
+    /**
+     * Returns the names of the columns that the column expressions copy
+     * unchanged from the joined tables. All output column names are
+     * added to outputs.
+     */
+    private static HashSet<String> passedColumns(RowSet[] from, ArrayList<ColumnExpression> exprs,
+                                                 HashSet<String> outputs) {
+        HashSet<String> passed = new HashSet<>();
+        if (exprs == null) {
+            for (RowSet t : from) {
+                passed.addAll(t.getColumnNames());
+            }
+            outputs.addAll(passed);
+            return passed;
+        }
+
+        HashSet<String> aliases = new HashSet<>();
+        for (ColumnExpression expr : exprs) {
+            if (expr.isColumn()) {
+                passed.add(expr.getName());
+            } else {
+                aliases.add(expr.getName());
+            }
+        }
+        outputs.addAll(passed);
+        outputs.addAll(aliases);
+        passed.removeAll(aliases);
+        return passed;
+    }
+
+    /**
+     * Returns true if c only reads columns in passed, false if it
+     * has to stay after the join.
+     */
+    private static boolean isPushable(Condition c, HashSet<String> passed,
+                                      HashSet<String> outputs) {
+        return c.isValid() && passed.contains(c.getLeft())
+                && (!outputs.contains(c.getRight()) || passed.contains(c.getRight()));
+    }
+
+    /**
+     * Returns true if t holds every column c reads and c compares
+     * operands of compatible types, so evaluating it can't fail.
+     */
+    private static boolean canEvaluate(RowSet t, Condition c, HashSet<String> outputs) {
+        if (!t.hasColumn(c.getLeft()) || !isKnownType(t.getTypeOfColumn(c.getLeft()))) {
+            return false;
+        }
+        boolean leftString = t.getTypeOfColumn(c.getLeft()).equals("string");
+        if (outputs.contains(c.getRight())) {
+            return t.hasColumn(c.getRight()) && isKnownType(t.getTypeOfColumn(c.getRight()))
+                    && leftString == t.getTypeOfColumn(c.getRight()).equals("string");
+        }
+
+        Type literal;
+        try {
+            literal = Element.createFromLiteral(c.getRight()).type();
+        } catch (ParsingException e) {
+            return false;
+        }
+        return literal.isNull() || leftString == (literal == Type.STRING);
+    }
+
+    /**
+     * Returns true if type is one of the column types a table
+     * can be created with.
+     */
+    private static boolean isKnownType(String type) {
+        return type.equals("int") || type.equals("float") || type.equals("string");
+    }
+}
@@ -0,0 +1,92 @@
+package db;
+
+/**
+ * A query parsed once by Database.prepare that can be executed any
+ * number of times. Each ? in the query is a parameter, numbered from
+ * 1 in the order they appear, that has to be bound before execute.
+ */
+public class PreparedStatement {
+
+    private final Database db;
+    private final Statement statement;
+    private final String[] params;
+
+    PreparedStatement(Database db, Statement statement) {
+        this.db = db;
+        this.statement = statement;
+        this.params = new String[statement.getParameterCount()];
+    }
+
+    /**
+     * Returns the number of parameters in the statement.
+     */
+    public int getParameterCount() {
+        return params.length;
+    }
+
+    public void setInt(int index, int value) {
+        set(index, Integer.toString(value));
+    }
+
+    public void setFloat(int index, double value) {
+        if (Double.isNaN(value)) {
+            set(index, "NaN");
+        } else if (Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot bind " + value + " as a float");
+        } else {
+            set(index, Double.toString(value));
+        }
+    }
+
+    /**
+     * Binds a string value, given without the surrounding quotes.
+     * Strings are written between quotes with nothing escaped, so a
+     * value holding a quote or a line break is refused rather than
+     * stored as something that reads back as other values.
+     */
+    public void setString(int index, String value) {
+        if (value.indexOf('\'') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Cannot bind a string holding a quote or "
+                    + "line break: " + value);
+        }
+        set(index, "'" + value + "'");
+    }
+
+    public void setNoValue(int index) {
+        set(index, "NOVALUE");
+    }
+
+    public void setNaN(int index) {
+        set(index, "NaN");
+    }
+
+    /**
+     * Unbinds all parameters.
+     */
+    public void clearParameters() {
+        for (int i = 0; i < params.length; i++) {
+            params[i] = null;
+        }
+    }
+
+    /**
+     * Executes the statement with the currently bound parameters and
+     * returns the same result transact would.
+     */
+    public String execute() {
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null) {
+                return "ERROR: No value bound to parameter " + (i + 1);
+            }
+        }
+        return db.execute(statement, params);
+    }
+
+    private void set(int index, String literal) {
+        if (index < 1 || index > params.length) {
+            throw new IndexOutOfBoundsException("Parameter " + index + " out of range 1.."
+                    + params.length);
+        }
+        params[index - 1] = literal;
+    }
+}
@@ -0,0 +1,81 @@
+package db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the queries of a Database and how long they took, in a
+ * histogram of fixed buckets. Queries may be recorded from any number
+ * of threads at once.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+    private static final double[] BOUNDS = {0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100,
+            250, 500, 1000, 2500, 5000, 10000, Double.POSITIVE_INFINITY};
+
+    private final ResultCache results;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length);
+
+    QueryMetrics(ResultCache results) {
+        this.results = results;
+    }
+
+    /**
+     * Records a query that took nanos nanoseconds.
+     */
+    void record(long nanos) {
+        queries.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        double millis = nanos / 1e6;
+        int bucket = 0;
+        while (millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return results.getHits();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return results.getMisses();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        long count = queries.sum();
+        return count == 0 ? 0.0 : totalNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public double[] getLatencyBucketBounds() {
+        return BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getLatencyBucketCounts() {
+        long[] counts = new long[BOUNDS.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,40 @@
+package db;
+
+/**
+ * The query counters of a Database, as read in process through
+ * Database.getMetrics or over JMX once Database.registerMBean was
+ * called.
+ */
+public interface QueryMetricsMBean {
+
+    /**
+     * Returns the number of queries run, prepared statements included.
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the number of selects answered from the result cache.
+     */
+    long getResultCacheHits();
+
+    /**
+     * Returns the number of selects that had to be computed.
+     */
+    long getResultCacheMisses();
+
+    double getMeanLatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    /**
+     * Returns the upper bound in milliseconds of every bucket of the
+     * latency histogram. The last bucket has no bound.
+     */
+    double[] getLatencyBucketBounds();
+
+    /**
+     * Returns the number of queries that took longer than the bound of
+     * the bucket before and at most the bound of their bucket.
+     */
+    long[] getLatencyBucketCounts();
+}
@@ -0,0 +1,218 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves one Database to clients connecting to a port on the loopback
+ * address. Each line a client sends is a query, answered in order by
+ * the lines of its result as they are produced, which are never empty,
+ * then an empty line and a status line:
+ *
+ *   OK n       the query ran and wrote the n lines before
+ *   ERROR n    the query failed and the n lines before are the error
+ *   BUSY 0     maxQueries queries were running, so it wasn't run
+ *
+ * A client may send any number of queries before reading the answers;
+ * answers are flushed once no more queries are waiting to be read, so
+ * a batch of queries costs one round trip. The line exit closes the
+ * connection. Every connection runs on its own virtual thread, or on a
+ * pooled platform thread on JVMs without virtual threads, and at most
+ * maxQueries queries run at the same time.
+ */
+public class QueryServer implements Closeable {
+
+    // Milliseconds to wait before accepting again after accept failed.
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+    private static final String EXIT = "exit";
+
+    private final Database db;
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final Semaphore admission;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Starts serving db on port, or on a free port if port is 0,
+     * running at most maxQueries queries at a time.
+     */
+    public QueryServer(Database db, int port, int maxQueries) throws IOException {
+        this.db = db;
+        this.admission = new Semaphore(maxQueries);
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.connections = connectionExecutor();
+        Thread acceptor = new Thread(this::accept, "query-server-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns an executor that runs every task on a new virtual thread,
+     * or on a cached pool of platform threads if virtual threads aren't
+     * available.
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "query-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. The
+     * database is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+        connections.shutdown();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = server.accept();
+                clients.add(client);
+                connections.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (closed || server.isClosed()) {
+                    return;
+                }
+                //out of file descriptors or the like, which a pause may cure
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers the queries of client until it sends exit or hangs up.
+     */
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            String query;
+            while ((query = in.readLine()) != null && !EXIT.equals(query.trim())) {
+                if (!query.trim().isEmpty()) {
+                    answer(query, out);
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            //the client hung up
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Runs query if fewer than maxQueries queries are running and
+     * writes its result and status to out.
+     */
+    private void answer(String query, Writer out) throws IOException {
+        if (!admission.tryAcquire()) {
+            out.write("\nBUSY 0\n");
+            return;
+        }
+        Response response = new Response(out);
+        try {
+            if (db.transact(query, response)) {
+                response.append('\n');
+            }
+        } finally {
+            admission.release();
+        }
+        out.write(response.isError() ? "\nERROR " : "\nOK ");
+        out.write(Integer.toString(response.lines));
+        out.write('\n');
+    }
+
+    /**
+     * Passes the result of a query on to the client, counting its
+     * lines and keeping its start to tell an error from a result.
+     */
+    private static class Response implements Appendable {
+        private final Writer out;
+        private final StringBuilder start = new StringBuilder();
+        int lines;
+
+        Response(Writer out) {
+            this.out = out;
+        }
+
+        boolean isError() {
+            return start.indexOf("ERROR") == 0 || start.indexOf("Malformed") == 0;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int from, int to) throws IOException {
+            for (int i = from; i < to && start.length() < 9; i++) {
+                start.append(csq.charAt(i));
+            }
+            for (int i = from; i < to; i++) {
+                if (csq.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+            out.append(csq, from, to);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (start.length() < 9) {
+                start.append(c);
+            }
+            if (c == '\n') {
+                lines++;
+            }
+            out.write(c);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Results of recent selects, keyed by query text and parameters. Each
+ * result remembers the versions of the tables it was computed from and
+ * is only returned while snapshots of those tables still have the same
+ * versions, so a result is never served once a row was added or a table
+ * was dropped, replaced or loaded again. Results are evicted least
+ * recently used first once they hold more than capacity cells together.
+ */
+class ResultCache {
+
+    private final long capacity;
+    private long cells;
+    private long hits;
+    private long misses;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    ResultCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the result cached under key if it was computed from
+     * the same versions of the tables as the snapshots from, null
+     * otherwise.
+     */
+    synchronized Table get(String key, Table[] from) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        for (int i = 0; i < from.length; i++) {
+            if (e.versions[i] != from[i].getVersion()) {
+                remove(key);
+                misses++;
+                return null;
+            }
+        }
+        hits++;
+        return e.result;
+    }
+
+    /**
+     * Returns the number of times get found a current result.
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times get found no current result.
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Caches result, computed from the snapshots from, under key.
+     * Results larger than the whole cache aren't kept.
+     */
+    synchronized void put(String key, Table[] from, Table result) {
+        long size = (long) Math.max(1, result.getNumRows()) * Math.max(1, result.getNumCols());
+        if (size > capacity) {
+            return;
+        }
+        String[] tables = new String[from.length];
+        long[] versions = new long[from.length];
+        for (int i = 0; i < from.length; i++) {
+            tables[i] = from[i].getName();
+            versions[i] = from[i].getVersion();
+        }
+        remove(key);
+        entries.put(key, new Entry(tables, versions, result, size));
+        cells += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (cells > capacity) {
+            cells -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Removes the results read from table name, which was dropped
+     * or replaced.
+     */
+    synchronized void invalidate(String name) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            for (String table : e.tables) {
+                if (table.equals(name)) {
+                    cells -= e.size;
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) {
+            cells -= e.size;
+        }
+    }
+
+    /**
+     * A result and the versions of the tables it was computed from.
+     */
+    private static class Entry {
+        final String[] tables;
+        final long[] versions;
+        final Table result;
+        final long size;
+
+        Entry(String[] tables, long[] versions, Table result, long size) {
+            this.tables = tables;
+            this.versions = versions;
+            this.result = result;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Rows of one or more tables that have not been copied into a table
+ * of their own. Each row is described by the row of every source table
+ * it is built from, and values are read through those row numbers, so
+ * filters and joins pass rows on without copying any values. Columns
+ * are only gathered once an operator needs them whole.
+ */
+class RowSet {
+
+    private final Table[] tables;
+    //rows[s][i] is the row of tables[s] row i is built from, null if it is row i itself
+    private final int[][] rows;
+    private final int numRows;
+    private final ArrayList<String> names;
+    private final ArrayList<String> types;
+    //the table and column each column is read from
+    private final int[] sources;
+    private final int[] columns;
+
+    /**
+     * Constructs the set of every row of t.
+     */
+    RowSet(Table t) {
+        this(t, null, t.getNumRows());
+    }
+
+    /**
+     * Constructs the set of rows rows[0..n) of t, or every row if
+     * rows is null.
+     */
+    RowSet(Table t, int[] rows, int n) {
+        this.tables = new Table[]{t};
+        this.rows = new int[][]{rows};
+        this.numRows = n;
+        this.names = t.getColumnNames();
+        this.types = t.getColumnTypes();
+        this.sources = new int[t.getNumCols()];
+        this.columns = new int[t.getNumCols()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+    }
+
+    private RowSet(Table[] tables, int[][] rows, int numRows, ArrayList<String> names,
+                   ArrayList<String> types, int[] sources, int[] columns) {
+        this.tables = tables;
+        this.rows = rows;
+        this.numRows = numRows;
+        this.names = names;
+        this.types = types;
+        this.sources = sources;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the set of rows built from row left[i] of a and row
+     * right[i] of b for i below n, with the columns of a whose
+     * positions are in colsA followed by the columns of b in colsB.
+     */
+    static RowSet combine(RowSet a, int[] left, int[] colsA, RowSet b, int[] right, int[] colsB,
+                          int n) {
+        Table[] tables = new Table[a.tables.length + b.tables.length];
+        int[][] rows = new int[tables.length][];
+        for (int s = 0; s < a.tables.length; s++) {
+            tables[s] = a.tables[s];
+            rows[s] = compose(a.rows[s], left, n);
+        }
+        for (int s = 0; s < b.tables.length; s++) {
+            tables[a.tables.length + s] = b.tables[s];
+            rows[a.tables.length + s] = compose(b.rows[s], right, n);
+        }
+
+        ArrayList<String> names = new ArrayList<>(colsA.length + colsB.length);
+        ArrayList<String> types = new ArrayList<>(colsA.length + colsB.length);
+        int[] sources = new int[colsA.length + colsB.length];
+        int[] columns = new int[sources.length];
+        int c = 0;
+        for (int col : colsA) {
+            names.add(a.names.get(col));
+            types.add(a.types.get(col));
+            sources[c] = a.sources[col];
+            columns[c++] = a.columns[col];
+        }
+        for (int col : colsB) {
+            names.add(b.names.get(col));
+            types.add(b.types.get(col));
+            sources[c] = a.tables.length + b.sources[col];
+            columns[c++] = b.columns[col];
+        }
+        return new RowSet(tables, rows, n, names, types, sources, columns);
+    }
+
+    /**
+     * Returns the rows of this set at positions[0..n), in that order.
+     */
+    RowSet select(int[] positions, int n) {
+        int[][] selected = new int[rows.length][];
+        for (int s = 0; s < rows.length; s++) {
+            selected[s] = compose(rows[s], positions, n);
+        }
+        return new RowSet(tables, selected, n, names, types, sources, columns);
+    }
+
+    /**
+     * Returns the same rows with source table s moved to position to[s],
+     * ordered by the row of the first table they are built from, then
+     * of the second and so on, and with the columns names, each read
+     * from the first table that has a column of that name.
+     */
+    RowSet reorder(int[] to, ArrayList<String> names) {
+        Table[] t = new Table[tables.length];
+        int[][] r = new int[rows.length][];
+        for (int s = 0; s < tables.length; s++) {
+            t[to[s]] = tables[s];
+            r[to[s]] = rows[s];
+        }
+
+        //stable counting sorts, from the last table to the first
+        int[] positions = null;
+        for (int s = t.length - 1; s >= 0; s--) {
+            positions = sortBy(r[s], positions, t[s].getNumRows());
+        }
+        for (int s = 0; s < r.length; s++) {
+            r[s] = r[s] == null ? positions : compose(r[s], positions, numRows);
+        }
+
+        ArrayList<String> types = new ArrayList<>(names.size());
+        int[] src = new int[names.size()];
+        int[] cols = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            int s = 0;
+            while (t[s].getColumnNames().indexOf(names.get(i)) == -1) {
+                s++;
+            }
+            src[i] = s;
+            cols[i] = t[s].getColumnNames().indexOf(names.get(i));
+            types.add(t[s].getColumnTypes().get(cols[i]));
+        }
+        return new RowSet(t, r, numRows, names, types, src, cols);
+    }
+
+    /**
+     * Returns positions, or every position if it is null, stably
+     * sorted by their row in rows, which are all below bound.
+     */
+    private int[] sortBy(int[] rows, int[] positions, int bound) {
+        int[] starts = new int[bound + 1];
+        for (int k = 0; k < numRows; k++) {
+            int p = positions == null ? k : positions[k];
+            starts[(rows == null ? p : rows[p]) + 1]++;
+        }
+        for (int i = 0; i < bound; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] sorted = new int[numRows];
+        for (int k = 0; k < numRows; k++) {
+            int p = positions == null ? k : positions[k];
+            sorted[starts[rows == null ? p : rows[p]]++] = p;
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns rows[positions[i]] for i below n, or positions itself
+     * if rows is null.
+     */
+    private static int[] compose(int[] rows, int[] positions, int n) {
+        if (rows == null) {
+            return positions;
+        }
+        int[] composed = new int[n];
+        for (int i = 0; i < n; i++) {
+            composed[i] = rows[positions[i]];
+        }
+        return composed;
+    }
+
+    /**
+     * Returns the table all rows come from if this set holds every row
+     * of a single table in order, null otherwise.
+     */
+    Table getTable() {
+        return tables.length == 1 && rows[0] == null ? tables[0] : null;
+    }
+
+    int getNumRows() {
+        return numRows;
+    }
+
+    int getNumCols() {
+        return names.size();
+    }
+
+    ArrayList<String> getColumnNames() {
+        return names;
+    }
+
+    boolean hasColumn(String colName) {
+        return indexOfColumn(colName) != -1;
+    }
+
+    int indexOfColumn(String colName) {
+        return names.indexOf(colName);
+    }
+
+    String getTypeOfColumn(String colName) {
+        return types.get(indexOfColumn(colName));
+    }
+
+    String getTypeOfColumn(int col) {
+        return types.get(col);
+    }
+
+    /**
+     * Returns the element in column col of row row.
+     */
+    Element getElement(int row, int col) {
+        int[] r = rows[sources[col]];
+        return tables[sources[col]].getElement(r == null ? row : r[row], columns[col]);
+    }
+
+    /**
+     * Returns column col holding a value for every row of the set.
+     * Columns read in place from their table are shared with it.
+     */
+    Column getColumn(int col) {
+        Column c = tables[sources[col]].getColumn(columns[col]);
+        int[] r = rows[sources[col]];
+        return r == null ? c : c.gather(r, numRows);
+    }
+
+    /**
+     * Returns a new column holding the values of column col at rows
+     * positions[0..n) of the set, or at every row if positions is null.
+     */
+    Column gather(int col, int[] positions, int n) {
+        Column c = tables[sources[col]].getColumn(columns[col]);
+        int[] r = rows[sources[col]];
+        if (positions == null) {
+            return r == null ? c : c.gather(r, numRows);
+        }
+        return c.gather(r == null ? positions : compose(r, positions, n), n);
+    }
+}
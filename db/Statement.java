@@ -0,0 +1,336 @@
+package db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A parsed query. Statements hold everything the parser extracted from
+ * the query text so they can be executed any number of times without
+ * parsing again. Values written as ? are parameters that are filled in
+ * on every execution.
+ */
+abstract class Statement {
+
+    /**
+     * Executes the statement with the parameter values params, or
+     * with the ? placeholders left as they are if params is null.
+     */
+    abstract String execute(Parser parser, String[] params);
+
+    /**
+     * Executes the statement and writes its result to out. Returns
+     * false if the result is empty and nothing was written.
+     */
+    boolean execute(Parser parser, String[] params, Appendable out) throws IOException {
+        String result = execute(parser, params);
+        out.append(result);
+        return result.length() > 0;
+    }
+
+    /**
+     * Returns the number of ? parameters in the statement.
+     */
+    int getParameterCount() {
+        return 0;
+    }
+
+    /**
+     * Returns value, or the next parameter value if value is a ?
+     * placeholder and params were given.
+     */
+    private static String bind(String value, String[] params, int[] next) {
+        if (params == null || !Condition.PARAMETER.equals(value)) {
+            return value;
+        }
+        return params[next[0]++];
+    }
+
+    /**
+     * A query that didn't match any command.
+     */
+    static class Malformed extends Statement {
+        private final String message;
+
+        Malformed(String message) {
+            this.message = message;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return message;
+        }
+    }
+
+    /**
+     * create table name (col type, ...)
+     */
+    static class CreateTable extends Statement {
+        private final String name;
+        private final String[] cols;
+
+        CreateTable(String name, String[] cols) {
+            this.name = name;
+            this.cols = cols;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return parser.createNewTable(name, cols);
+        }
+    }
+
+    /**
+     * create table name as select ...
+     */
+    static class CreateSelect extends Statement {
+        private final String name;
+        private final Select select;
+
+        CreateSelect(String name, Select select) {
+            this.name = name;
+            this.select = select;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return parser.createSelectedTable(name, select, params);
+        }
+
+        @Override
+        int getParameterCount() {
+            return select.getParameterCount();
+        }
+    }
+
+    /**
+     * create materialized view name as select ...
+     */
+    static class CreateView extends Statement {
+        private final String name;
+        private final Select select;
+
+        CreateView(String name, Select select) {
+            this.name = name;
+            this.select = select;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return parser.createView(name, select);
+        }
+    }
+
+    /**
+     * load, store, drop table and print, which all take a table name.
+     * load binary and store binary use the binary table format,
+     * stats prints the statistics of the columns of a table.
+     */
+    static class TableCommand extends Statement {
+        static final int LOAD = 0, STORE = 1, DROP = 2, PRINT = 3, LOAD_BINARY = 4, STORE_BINARY = 5,
+                STATS = 6;
+
+        private final int command;
+        private final String name;
+
+        TableCommand(int command, String name) {
+            this.command = command;
+            this.name = name;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            switch (command) {
+                case LOAD:
+                    return parser.loadTable(name);
+                case STORE:
+                    return parser.storeTable(name);
+                case DROP:
+                    return parser.dropTable(name);
+                case LOAD_BINARY:
+                    return parser.loadBinaryTable(name);
+                case STORE_BINARY:
+                    return parser.storeBinaryTable(name);
+                case STATS:
+                    return parser.printStats(name);
+                default:
+                    return parser.printTable(name);
+            }
+        }
+
+        @Override
+        boolean execute(Parser parser, String[] params, Appendable out) throws IOException {
+            if (command == PRINT) {
+                return parser.printTable(name, out);
+            }
+            return super.execute(parser, params, out);
+        }
+    }
+
+    /**
+     * create [hash|ordered] index on name (col) and
+     * drop index on name (col).
+     */
+    static class IndexCommand extends Statement {
+        private final boolean create;
+        private final String kind;
+        private final String name;
+        private final String column;
+
+        IndexCommand(boolean create, String kind, String name, String column) {
+            this.create = create;
+            this.kind = kind;
+            this.name = name;
+            this.column = column;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            if (create) {
+                return parser.createIndex(name, column, kind);
+            }
+            return parser.dropIndex(name, column);
+        }
+    }
+
+    /**
+     * insert into name values ...
+     */
+    static class Insert extends Statement {
+        private final String name;
+        private final String[] values;
+
+        Insert(String name, String[] values) {
+            this.name = name;
+            this.values = values;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            String[] row = values;
+            if (params != null) {
+                row = new String[values.length];
+                int[] next = {0};
+                for (int i = 0; i < values.length; i++) {
+                    row[i] = bind(values[i], params, next);
+                }
+            }
+            return parser.insertRow(name, row);
+        }
+
+        @Override
+        int getParameterCount() {
+            int count = 0;
+            for (String value : values) {
+                if (Condition.PARAMETER.equals(value)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * explain analyze select ...
+     */
+    static class Explain extends Statement {
+        private final Select select;
+
+        Explain(Select select) {
+            this.select = select;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return parser.explainAnalyze(select, params);
+        }
+
+        @Override
+        int getParameterCount() {
+            return select.getParameterCount();
+        }
+    }
+
+    /**
+     * select exprs from tables where conds
+     */
+    static class Select extends Statement {
+        private final String text;
+        private final ArrayList<ColumnExpression> exprs;
+        private final String[] tables;
+        private final ArrayList<Condition> conds;
+
+        /**
+         * Constructs a select of the column expressions exprs, or of
+         * every column if exprs is null. text is the normalized query
+         * text after select.
+         */
+        Select(String text, ArrayList<ColumnExpression> exprs, String[] tables,
+               ArrayList<Condition> conds) {
+            this.text = text;
+            this.exprs = exprs;
+            this.tables = tables;
+            this.conds = conds;
+        }
+
+        @Override
+        String execute(Parser parser, String[] params) {
+            return parser.selectReturnString(this, params);
+        }
+
+        @Override
+        boolean execute(Parser parser, String[] params, Appendable out) throws IOException {
+            return parser.selectTo(this, params, out);
+        }
+
+        @Override
+        int getParameterCount() {
+            int count = 0;
+            for (Condition c : conds) {
+                if (c.isParameter()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        ArrayList<ColumnExpression> getExprs() {
+            return exprs;
+        }
+
+        String[] getTables() {
+            return tables;
+        }
+
+        /**
+         * Returns the normalized query text after select.
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * Returns the key the result of the select with the parameter
+         * values params is cached under.
+         */
+        String getCacheKey(String[] params) {
+            if (params == null || params.length == 0) {
+                return text;
+            }
+            return text + '\0' + String.join("\0", params);
+        }
+
+        /**
+         * Returns the where conditions with their parameters
+         * replaced by params.
+         */
+        ArrayList<Condition> getConditions(String[] params) {
+            ArrayList<Condition> bound = new ArrayList<>(conds.size());
+            int[] next = {0};
+            for (Condition c : conds) {
+                bound.add(c.isParameter() && params != null
+                        ? c.bind(bind(c.getRight(), params, next)) : c);
+            }
+            return bound;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Recursive descent parser that turns the tokens of a normalized
+ * query into a Statement. Each token is looked at a constant number
+ * of times, so parsing is linear in the length of the query.
+ */
+class StatementParser {
+
+    private final String query;
+    private final ArrayList<Lexer.Token> tokens;
+    private int pos;
+
+    StatementParser(String query) {
+        this.query = query;
+        this.tokens = Lexer.tokenize(query);
+        this.pos = 0;
+    }
+
+    /**
+     * Parses the whole query.
+     */
+    Statement parse() {
+        if (accept("create") && accept("table") && !atEnd()) {
+            return create();
+        }
+        pos = 0;
+        if (accept("create") && accept("materialized") && accept("view") && !atEnd()) {
+            return createView();
+        }
+        pos = 0;
+        if (accept("create") && (peek("index") || peek(Index.HASH) || peek(Index.ORDERED))) {
+            return createIndex();
+        }
+        pos = 0;
+        if (accept("drop") && accept("index") && !atEnd()) {
+            int start = pos - 1;
+            Statement.IndexCommand drop = indexTarget(false, null);
+            if (drop == null) {
+                pos = start;
+                return new Statement.Malformed("Malformed index: " + rest());
+            }
+            return drop;
+        }
+        pos = 0;
+        if (accept("insert") && accept("into") && !atEnd()) {
+            return insert();
+        }
+        pos = 0;
+        if (accept("drop") && accept("table") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.DROP, rest());
+        }
+        pos = 0;
+        if (accept("select") && !atEnd()) {
+            int start = pos;
+            Statement.Select select = select();
+            if (select == null) {
+                pos = start;
+                return new Statement.Malformed("Malformed select: " + rest());
+            }
+            return select;
+        }
+        pos = 0;
+        if (accept("explain") && accept("analyze") && accept("select") && !atEnd()) {
+            int start = pos;
+            Statement.Select select = select();
+            if (select == null) {
+                pos = start;
+                return new Statement.Malformed("Malformed select: " + rest());
+            }
+            return new Statement.Explain(select);
+        }
+        pos = 0;
+        if (accept("load") && accept("binary") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.LOAD_BINARY, rest());
+        }
+        pos = 0;
+        if (accept("store") && accept("binary") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.STORE_BINARY, rest());
+        }
+        pos = 0;
+        if (accept("load") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.LOAD, rest());
+        } else if (accept("store") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.STORE, rest());
+        } else if (accept("print") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.PRINT, rest());
+        } else if (accept("stats") && !atEnd()) {
+            return new Statement.TableCommand(Statement.TableCommand.STATS, rest());
+        }
+        return new Statement.Malformed("Malformed query: " + query);
+    }
+
+    /**
+     * create table name (col type, ...) or
+     * create table name as select ...
+     */
+    private Statement create() {
+        int start = pos;
+        Lexer.Token name = next();
+        if (name.type == Lexer.WORD) {
+            if (accept("as") && accept("select")) {
+                Statement.Select select = select();
+                if (select != null) {
+                    return new Statement.CreateSelect(name.text, select);
+                }
+            } else if (accept("(")) {
+                String[] cols = columnDefinitions();
+                if (cols != null) {
+                    return new Statement.CreateTable(name.text, cols);
+                }
+            }
+        }
+        pos = start;
+        return new Statement.Malformed("Malformed create: " + rest());
+    }
+
+    /**
+     * create materialized view name as select ...
+     */
+    private Statement createView() {
+        int start = pos;
+        Lexer.Token name = next();
+        if (name.type == Lexer.WORD && accept("as") && accept("select")) {
+            Statement.Select select = select();
+            if (select != null) {
+                return new Statement.CreateView(name.text, select);
+            }
+        }
+        pos = start;
+        return new Statement.Malformed("Malformed create: " + rest());
+    }
+
+    /**
+     * create [hash|ordered] index on name (col) - a hash
+     * index is built unless ordered is given.
+     */
+    private Statement createIndex() {
+        int start = pos;
+        String kind = Index.HASH;
+        if (accept(Index.ORDERED)) {
+            kind = Index.ORDERED;
+        } else {
+            accept(Index.HASH);
+        }
+        Statement.IndexCommand create = accept("index") ? indexTarget(true, kind) : null;
+        if (create == null) {
+            pos = start;
+            return new Statement.Malformed("Malformed index: " + rest());
+        }
+        return create;
+    }
+
+    /**
+     * on name (col) - returns null if malformed.
+     */
+    private Statement.IndexCommand indexTarget(boolean create, String kind) {
+        if (!accept("on")) {
+            return null;
+        }
+        Lexer.Token table = next();
+        if (table == null || table.type != Lexer.WORD || !accept("(")) {
+            return null;
+        }
+        Lexer.Token column = next();
+        if (column == null || column.type != Lexer.WORD || !accept(")") || !atEnd()) {
+            return null;
+        }
+        return new Statement.IndexCommand(create, kind, table.text, column.text);
+    }
+
+    /**
+     * col type, ...) - returns the column definitions as "col type"
+     * strings or null if they are malformed.
+     */
+    private String[] columnDefinitions() {
+        ArrayList<String> cols = new ArrayList<>();
+        do {
+            Lexer.Token col = next();
+            Lexer.Token type = next();
+            if (col == null || type == null || col.type != Lexer.WORD || type.type != Lexer.WORD) {
+                return null;
+            }
+            cols.add(col.text + " " + type.text);
+        } while (accept(","));
+        if (!accept(")") || !atEnd()) {
+            return null;
+        }
+        return cols.toArray(new String[0]);
+    }
+
+    /**
+     * insert into name values v, ... - values are kept as written
+     * and only checked once they are inserted.
+     */
+    private Statement insert() {
+        int start = pos;
+        Lexer.Token name = next();
+        if (name.type != Lexer.WORD || !accept("values") || atEnd()) {
+            pos = start;
+            return new Statement.Malformed("Malformed insert: " + rest());
+        }
+
+        ArrayList<String> values = new ArrayList<>();
+        for (ArrayList<Lexer.Token> group : split(",", null)) {
+            values.add(text(group));
+        }
+        //like String.split, trailing empty values are dropped
+        while (!values.isEmpty() && values.get(values.size() - 1).isEmpty()) {
+            values.remove(values.size() - 1);
+        }
+        return new Statement.Insert(name.text, values.toArray(new String[0]));
+    }
+
+    /**
+     * exprs from tables [where conds] - returns null if malformed.
+     */
+    private Statement.Select select() {
+        String text = atEnd() ? "" : rest();
+        ArrayList<ColumnExpression> exprs = null;
+        if (peek("*") && pos + 1 < tokens.size() && tokens.get(pos + 1).is("from")) {
+            pos++;
+        } else {
+            exprs = new ArrayList<>();
+            for (ArrayList<Lexer.Token> group : split(",", "from")) {
+                if (group.isEmpty()) {
+                    return null;
+                }
+                exprs.add(columnExpression(group));
+            }
+        }
+        if (!accept("from")) {
+            return null;
+        }
+
+        ArrayList<String> tables = new ArrayList<>();
+        do {
+            Lexer.Token table = next();
+            if (table == null || table.type != Lexer.WORD) {
+                return null;
+            }
+            tables.add(table.text);
+        } while (accept(","));
+
+        ArrayList<Condition> conds = new ArrayList<>();
+        if (accept("where")) {
+            for (ArrayList<Lexer.Token> group : split("and", null)) {
+                if (group.isEmpty()) {
+                    return null;
+                }
+                conds.add(condition(group));
+            }
+        }
+        if (!atEnd()) {
+            return null;
+        }
+        return new Statement.Select(text, exprs, tables.toArray(new String[0]), conds);
+    }
+
+    /**
+     * Builds the column expression name or
+     * left operator right as alias.
+     */
+    private ColumnExpression columnExpression(ArrayList<Lexer.Token> group) {
+        int as = -1;
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).is("as")) {
+                as = i;
+                break;
+            }
+        }
+        if (as == -1) {
+            return new ColumnExpression(text(group));
+        }
+
+        String alias = text(group.subList(as + 1, group.size()));
+        int[] at = {0};
+        String left = operand(group, at, as);
+        int operator = at[0] < as ? arithmeticOperator(group.get(at[0]++)) : -1;
+        String right = operand(group, at, as);
+        if (left == null || operator == -1 || right == null || at[0] != as) {
+            return ColumnExpression.invalid(alias, "ERROR: Invalid column Expression "
+                    + text(group.subList(0, as)));
+        }
+        return new ColumnExpression(alias, left, operator, right);
+    }
+
+    /**
+     * Builds the condition left operator right, where right may be a
+     * column, a literal or a ? parameter.
+     */
+    private Condition condition(ArrayList<Lexer.Token> group) {
+        int[] at = {0};
+        String left = operand(group, at, group.size());
+        String operator = at[0] < group.size() ? comparison(group.get(at[0]++)) : null;
+        String right = operand(group, at, group.size());
+        if (left == null || operator == null || right == null || at[0] != group.size()) {
+            return Condition.parse(text(group));
+        }
+        return new Condition(left, operator, right);
+    }
+
+    /**
+     * Reads a column name, literal or ? from group starting at at[0]
+     * and stopping before end. Returns its text or null if there is
+     * none.
+     */
+    private static String operand(ArrayList<Lexer.Token> group, int[] at, int end) {
+        if (at[0] >= end) {
+            return null;
+        }
+        Lexer.Token t = group.get(at[0]++);
+        if (t.is("-") && at[0] < end && group.get(at[0]).type == Lexer.NUMBER) {
+            return "-" + group.get(at[0]++).text;
+        }
+        if (t.type == Lexer.WORD || t.type == Lexer.NUMBER || t.type == Lexer.STRING
+                || t.is(Condition.PARAMETER)) {
+            return t.text;
+        }
+        return null;
+    }
+
+    private static int arithmeticOperator(Lexer.Token t) {
+        if (t.type != Lexer.SYMBOL) {
+            return -1;
+        }
+        switch (t.text) {
+            case "+":
+                return Element.ADD;
+            case "-":
+                return Element.SUB;
+            case "*":
+                return Element.MUL;
+            case "/":
+                return Element.DIV;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the comparison operator t stands for, or null.
+     */
+    private static String comparison(Lexer.Token t) {
+        if (t.type != Lexer.SYMBOL) {
+            return null;
+        }
+        switch (t.text) {
+            case "=>":
+                return ">=";
+            case "=<":
+                return "<=";
+            default:
+                return Element.comparisonCode(t.text) == -1 ? null : t.text;
+        }
+    }
+
+    /**
+     * Splits the tokens from pos up to the word stop (or the end) into
+     * groups separated by the token separator, leaving pos at stop.
+     */
+    private ArrayList<ArrayList<Lexer.Token>> split(String separator, String stop) {
+        ArrayList<ArrayList<Lexer.Token>> groups = new ArrayList<>();
+        ArrayList<Lexer.Token> group = new ArrayList<>();
+        while (!atEnd() && (stop == null || !peek(stop))) {
+            Lexer.Token t = next();
+            if (t.is(separator)) {
+                groups.add(group);
+                group = new ArrayList<>();
+            } else {
+                group.add(t);
+            }
+        }
+        groups.add(group);
+        return groups;
+    }
+
+    /**
+     * Returns the query text spanned by tokens.
+     */
+    private String text(java.util.List<Lexer.Token> group) {
+        if (group.isEmpty()) {
+            return "";
+        }
+        return query.substring(group.get(0).start, group.get(group.size() - 1).end);
+    }
+
+    /**
+     * Returns the query text from the current token on.
+     */
+    private String rest() {
+        return query.substring(tokens.get(pos).start);
+    }
+
+    private boolean accept(String s) {
+        if (peek(s)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean peek(String s) {
+        return pos < tokens.size() && tokens.get(pos).is(s);
+    }
+
+    private Lexer.Token next() {
+        return pos < tokens.size() ? tokens.get(pos++) : null;
+    }
+
+    private boolean atEnd() {
+        return pos >= tokens.size();
+    }
+}
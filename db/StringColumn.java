@@ -0,0 +1,186 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Column of string values, stored with their surrounding quotes.
+ * Values are dictionary encoded: each row holds the int code of its
+ * string in a StringDictionary, so a string repeated over many rows is
+ * only stored once, and comparisons with a literal compare the literal
+ * with each distinct string once rather than with every row. Copies
+ * share the dictionary of the column they were copied from until they
+ * add a string it doesn't hold, so copies never grow the dictionary of
+ * the original.
+ */
+class StringColumn extends Column {
+
+    private int[] codes;
+    private StringDictionary dictionary;
+    //set on copies until they take their own copy of the dictionary
+    private boolean sharedDictionary;
+    //the rows of the dictionary that satisfy the last comparison selected
+    private volatile Matches matches;
+
+    StringColumn(int capacity) {
+        this(capacity, new StringDictionary());
+    }
+
+    private StringColumn(int capacity, StringDictionary dictionary) {
+        this.codes = new int[capacity];
+        this.dictionary = dictionary;
+        this.sharedDictionary = true;
+    }
+
+    /**
+     * Constructs a full column holding values, with the NaN and
+     * NOVALUE cells marked in kinds, which may be null.
+     */
+    StringColumn(String[] values, byte[] kinds) {
+        this.codes = new int[values.length];
+        this.dictionary = new StringDictionary();
+        this.kinds = kinds;
+        this.size = values.length;
+        for (int i = 0; i < values.length; i++) {
+            if (kinds == null || kinds[i] == VALUE) {
+                codes[i] = dictionary.encode(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the string stored at row.
+     */
+    String getString(int row) {
+        return dictionary.get(codes[row]);
+    }
+
+    @Override
+    int[] select(int op, Element literal, int[] candidates, int from, int to) {
+        if (literal.type() != Type.STRING) {
+            return null;
+        }
+        int[] rows = new int[to - from];
+        int count = 0;
+        if (op == Element.EQ || op == Element.NE) {
+            //a string not in the dictionary equals no row
+            int code = dictionary.find(literal.stringValue());
+            boolean equal = op == Element.EQ;
+            for (int k = from; k < to; k++) {
+                int i = candidates == null ? k : candidates[k];
+                byte kind = kindAt(i);
+                if (kind == NAN || kind == VALUE && (codes[i] == code) == equal) {
+                    rows[count++] = i;
+                }
+            }
+        } else {
+            boolean[] match = matches(op, literal.stringValue());
+            for (int k = from; k < to; k++) {
+                int i = candidates == null ? k : candidates[k];
+                byte kind = kindAt(i);
+                if (kind == NAN || kind == VALUE && match[codes[i]]) {
+                    rows[count++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Returns whether each string of the dictionary satisfies op v,
+     * by code. The morsels of one scan share the result.
+     */
+    private boolean[] matches(int op, String v) {
+        Matches m = matches;
+        int n = dictionary.size();
+        if (m == null || m.op != op || !m.literal.equals(v) || m.match.length < n) {
+            boolean[] match = new boolean[n];
+            for (int code = 0; code < n; code++) {
+                match[code] = Element.test(op, dictionary.get(code).compareTo(v));
+            }
+            m = new Matches(op, v, match);
+            matches = m;
+        }
+        return m.match;
+    }
+
+    @Override
+    boolean accepts(Element e) {
+        return e.type() == Type.STRING;
+    }
+
+    @Override
+    Element getValue(int row) {
+        return Element.ofString(getString(row));
+    }
+
+    @Override
+    void set(int row, Element e) {
+        codes[row] = encode(e.stringValue());
+    }
+
+    @Override
+    void copyValue(int row, Column src, int srcRow) {
+        StringColumn s = (StringColumn) src;
+        codes[row] = s.dictionary == dictionary ? s.codes[srcRow]
+                : encode(s.getString(srcRow));
+    }
+
+    /**
+     * Returns the code of s, first taking a copy of a shared
+     * dictionary that doesn't hold s yet.
+     */
+    private int encode(String s) {
+        if (sharedDictionary) {
+            int code = dictionary.find(s);
+            if (code >= 0) {
+                return code;
+            }
+            dictionary = dictionary.copy();
+            sharedDictionary = false;
+        }
+        return dictionary.encode(s);
+    }
+
+    @Override
+    void appendValue(StringBuilder sb, int row) {
+        sb.append(getString(row));
+    }
+
+    /**
+     * Returns an empty column sharing this column's dictionary, so
+     * values are copied into it as codes, until it adds a new string.
+     */
+    @Override
+    Column emptyCopy(int capacity) {
+        return new StringColumn(capacity, dictionary);
+    }
+
+    @Override
+    int capacity() {
+        return codes.length;
+    }
+
+    @Override
+    void grow(int capacity) {
+        if (codes.length < capacity) {
+            int c = newCapacity(codes.length, capacity);
+            codes = Arrays.copyOf(codes, c);
+            growKinds(c);
+        }
+    }
+
+    /**
+     * The strings of the dictionary that satisfy a comparison.
+     */
+    private static class Matches {
+        final int op;
+        final String literal;
+        final boolean[] match;
+
+        Matches(int op, String literal, boolean[] match) {
+            this.op = op;
+            this.literal = literal;
+            this.match = match;
+        }
+    }
+}
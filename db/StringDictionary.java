@@ -0,0 +1,109 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Maps every distinct string of one or more string columns to an int
+ * code, so each string is stored once however many rows hold it. Codes
+ * are handed out in the order strings are first seen and never change.
+ * Columns copied from one another share their dictionary, so values
+ * are copied as codes, until a copy adds a string of its own and takes
+ * a copy of the dictionary. Strings are added under the dictionary's lock,
+ * while get may run at any time for codes that were added before.
+ */
+class StringDictionary {
+
+    private volatile String[] strings = new String[16];
+    private volatile int size;
+    //open addressing table of code + 1, 0 for an empty slot
+    private int[] slots = new int[32];
+
+    /**
+     * Returns the string with code.
+     */
+    String get(int code) {
+        return strings[code];
+    }
+
+    /**
+     * Returns the number of strings in the dictionary.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a dictionary holding the strings of this one under the
+     * same codes, which strings can be added to separately.
+     */
+    synchronized StringDictionary copy() {
+        StringDictionary d = new StringDictionary();
+        d.strings = Arrays.copyOf(strings, strings.length);
+        d.slots = slots.clone();
+        d.size = size;
+        return d;
+    }
+
+    /**
+     * Returns the code of s, adding it if it is new.
+     */
+    synchronized int encode(String s) {
+        int slot = slotOf(s);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int code = size;
+        String[] current = strings;
+        if (code == current.length) {
+            current = Arrays.copyOf(current, code * 2);
+        }
+        current[code] = s;
+        strings = current;
+        slots[slot] = code + 1;
+        size = code + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of s, or -1 if s isn't in the dictionary.
+     */
+    synchronized int find(String s) {
+        int slot = slotOf(s);
+        return slots[slot] - 1;
+    }
+
+    /**
+     * Returns the slot holding s, or the empty slot it would go in.
+     */
+    private int slotOf(String s) {
+        int mask = slots.length - 1;
+        int slot = mix(s.hashCode()) & mask;
+        while (slots[slot] != 0 && !strings[slots[slot] - 1].equals(s)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        int mask = slots.length - 1;
+        for (int code : old) {
+            if (code != 0) {
+                int slot = mix(strings[code - 1].hashCode()) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = code;
+            }
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,16 @@
+package db;
+
+/**
+ * When the write-ahead log of a Database is forced to disk.
+ */
+public enum SyncPolicy {
+    /** After every statement, before transact returns. */
+    ALWAYS,
+    /** By a background thread every few milliseconds, for all the
+     * statements committed since, which wait for it before transact
+     * returns. Concurrent statements share a force at the cost of a
+     * few milliseconds of latency each. */
+    GROUP,
+    /** Never, it is left to the operating system. */
+    NONE
+}
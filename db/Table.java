@@ -1,44 +1,75 @@
 package db;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Table object stores and manipulates row objects
+ * Table object stores its data column by column. Rows are
+ * only built on demand by getRow. Columns may carry an Index
+ * that is kept up to date as rows are added. Rows are only ever
+ * appended, so snapshot can hand out views of the rows added so
+ * far that stay valid while more rows are added.
  */
 public class Table {
 
-    private ArrayList<Row> rows = new ArrayList<>();
+    static final int WRITE_BUFFER_SIZE = 8192;
+    //versions are handed out from one counter, so no two tables share one
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private ArrayList<Column> columns;
+    private int numRows;
     private String tableName;
     private ArrayList<String> columnNames;
     private ArrayList<String> columnTypes;
+    //replaced rather than changed, so snapshots can share it
+    private HashMap<String, Index> indexes = new HashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    //statistics and zone maps of every column, null until collectStats is called
+    private ArrayList<ColumnStats> stats;
+    private ArrayList<ZoneMap> zones;
+    private long version = VERSIONS.incrementAndGet();
 
     /**
      * Creates a table object and initializes it.
      */
     Table(String tableName, ArrayList<String> columnNames, ArrayList<String> columnTypes) {
         this.tableName = tableName;
-        this.columnNames = columnNames;
-        this.columnTypes = columnTypes;
+        this.columnNames = new ArrayList<>(columnNames);
+        this.columnTypes = new ArrayList<>(columnTypes);
+        this.columns = new ArrayList<>(columnTypes.size());
+        for (String type : columnTypes) {
+            columns.add(Column.forType(type, 0));
+        }
     }
 
     /**
      * Adds a column of data by adding a new name to the columnNames
-     * adding a type to the ColumnTypes, then adding a new element
-     * object to every row.
+     * adding a type to the ColumnTypes, then storing the values
+     * in a new column.
      */
     void addColumn(String name, String type, ArrayList<Element> values) {
+        addColumn(name, type, Column.of(type, values));
+    }
+
+    /**
+     * Adds the column of values c under name and type.
+     */
+    void addColumn(String name, String type, Column c) {
         columnNames.add(name);
         columnTypes.add(type);
-        for (int i = 0; i < values.size(); i++) {
-            Row r;
-            if (i < getNumRows()) {
-                r = rows.get(i);
-                r.addElement(values.get(i));
-            } else {
-                r = new Row();
-                r.addElement(values.get(i));
-                rows.add(r);
-            }
+        columns.add(c);
+        numRows = Math.max(numRows, c.size());
+        version = VERSIONS.incrementAndGet();
+        if (stats != null) {
+            ColumnStats cs = new ColumnStats(type);
+            cs.addAll(c, 0, c.size());
+            stats.add(cs);
+            ZoneMap zm = new ZoneMap();
+            zm.addAll(c, 0, c.size());
+            zones.add(zm);
         }
     }
 
@@ -47,6 +78,14 @@ public class Table {
      * appending them to a row object.
      */
     void addRowToTable(String[] values) throws ParsingException {
+        addRowToTable(parseRow(values));
+    }
+
+    /**
+     * Builds the row of values, checking them against the
+     * column types.
+     */
+    Row parseRow(String[] values) throws ParsingException {
         if (values.length != columnNames.size()) {
             throw new ParsingException("ERROR: Incorrect amount of values to insert into row");
         }
@@ -54,23 +93,196 @@ public class Table {
         Row r = new Row();
         for (int i = 0; i < values.length; i++) {
             Element e = Element.createFromLiteral(values[i]);
-            String type = e.type();
-            if (type.equals("NOVALUE") || type.equals("NaN")
-                    || type.equals(columnTypes.get(i))) {
+            if (e.type().isNull() || e.type().is(columnTypes.get(i))) {
                 r.addElement(e);
             } else {
                 throw new ParsingException("ERROR: Invalid type insertion " + values[i]
                 + " expecting " + columnTypes.get(i));
             }
         }
-        rows.add(r);
+        return r;
     }
 
     /**
-     * Adds a row object r to the table data structure.
+     * Adds the elements of row r to the end of every column.
      */
     void addRowToTable(Row r) {
-        this.rows.add(r);
+        for (int i = 0; i < columns.size(); i++) {
+            columns.set(i, columns.get(i).append(r.getElement(i)));
+        }
+        for (Index index : indexes.values()) {
+            index.add(r.getElement(index.getColumn()), numRows);
+        }
+        if (stats != null) {
+            for (int i = 0; i < stats.size(); i++) {
+                stats.get(i).add(r.getElement(i));
+                zones.get(i).add(r.getElement(i));
+            }
+        }
+        numRows++;
+        version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Appends the first n values of cols, one column per table
+     * column, without checking their types.
+     */
+    void appendRows(Column[] cols, int n) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (numRows == 0) {
+                columns.set(i, cols[i]);
+            } else {
+                for (int row = 0; row < n; row++) {
+                    columns.set(i, columns.get(i).append(cols[i].get(row)));
+                }
+            }
+        }
+        for (Index index : indexes.values()) {
+            for (int row = 0; row < n; row++) {
+                index.add(cols[index.getColumn()].get(row), numRows + row);
+            }
+        }
+        if (stats != null) {
+            for (int i = 0; i < stats.size(); i++) {
+                stats.get(i).addAll(cols[i], 0, n);
+                zones.get(i).addAll(cols[i], 0, n);
+            }
+        }
+        numRows += n;
+        version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Builds an index of kind Index.HASH or Index.ORDERED on
+     * column colName over the rows added so far.
+     */
+    Index buildIndex(String colName, String kind) throws ParsingException {
+        int col = indexOfColumn(colName);
+        if (col == -1) {
+            throw new ParsingException("ERROR: Cannot find column " + colName);
+        } else if (indexes.containsKey(colName)) {
+            throw new ParsingException("ERROR: Index already exists on " + tableName
+                    + " (" + colName + ")");
+        } else if (columns.get(col) instanceof GenericColumn) {
+            throw new ParsingException("ERROR: Cannot index column " + colName
+                    + " of type " + columnTypes.get(col));
+        }
+
+        Index index = new Index(kind, col, Type.of(columnTypes.get(col)));
+        for (int i = 0; i < numRows; i++) {
+            index.add(getElement(i, col), i);
+        }
+        return index;
+    }
+
+    /**
+     * Adds index, built by buildIndex, on column colName.
+     */
+    void addIndex(String colName, Index index) {
+        HashMap<String, Index> updated = new HashMap<>(indexes);
+        updated.put(colName, index);
+        indexes = updated;
+    }
+
+    /**
+     * Removes the index on column colName.
+     */
+    void dropIndex(String colName) throws ParsingException {
+        if (!indexes.containsKey(colName)) {
+            throw new ParsingException("ERROR: No index on " + tableName + " (" + colName + ")");
+        }
+        HashMap<String, Index> updated = new HashMap<>(indexes);
+        updated.remove(colName);
+        indexes = updated;
+    }
+
+    /**
+     * Returns the rows that may satisfy colName op literal as found
+     * by the index on colName, or null if there is no index that
+     * can answer the condition.
+     */
+    int[] lookup(String colName, int op, Element literal) {
+        Index index = indexes.get(colName);
+        return index == null ? null : index.lookup(op, literal, numRows);
+    }
+
+    /**
+     * Starts keeping statistics and zone maps of every column,
+     * beginning with the rows added so far. Called once a table is
+     * added to a database, tables built for query results go without.
+     */
+    void collectStats() {
+        ArrayList<ColumnStats> collected = new ArrayList<>(getNumCols());
+        ArrayList<ZoneMap> zoneMaps = new ArrayList<>(getNumCols());
+        for (int i = 0; i < getNumCols(); i++) {
+            ColumnStats cs = new ColumnStats(columnTypes.get(i));
+            cs.addAll(columns.get(i), 0, numRows);
+            collected.add(cs);
+            ZoneMap zm = new ZoneMap();
+            zm.addAll(columns.get(i), 0, numRows);
+            zoneMaps.add(zm);
+        }
+        stats = collected;
+        zones = zoneMaps;
+    }
+
+    /**
+     * Returns the statistics of column col, or null if they aren't
+     * kept. Snapshots share the statistics of their table, which
+     * include rows added after the snapshot was taken.
+     */
+    ColumnStats getStats(int col) {
+        return stats == null ? null : stats.get(col);
+    }
+
+    /**
+     * Returns the zone map of column col, or null if there is none.
+     * Snapshots have views of the zone maps of their table.
+     */
+    ZoneMap getZoneMap(int col) {
+        return zones == null ? null : zones.get(col);
+    }
+
+    /**
+     * Returns the lock held while adding rows or changing indexes,
+     * which keeps writers of the table apart.
+     */
+    ReentrantLock getWriteLock() {
+        return writeLock;
+    }
+
+    /**
+     * Returns a read-only view of the rows added so far. The view
+     * shares the column arrays and indexes of the table and is not
+     * affected by rows added later. The caller holds the commit lock
+     * of the database, which rows are added under.
+     */
+    Table snapshot() {
+        Table t = new Table(tableName, new ArrayList<>(), new ArrayList<>());
+        for (int i = 0; i < getNumCols(); i++) {
+            t.addColumn(columnNames.get(i), columnTypes.get(i), columns.get(i).view(numRows));
+        }
+        t.numRows = numRows;
+        t.indexes = indexes;
+        t.stats = stats;
+        if (zones != null) {
+            t.zones = new ArrayList<>(zones.size());
+            for (ZoneMap zm : zones) {
+                t.zones.add(zm.view());
+            }
+        }
+        t.version = version;
+        return t;
+    }
+
+    /**
+     * Returns the version of the table, which changes whenever rows
+     * or columns are added. Tables that are created, loaded or copied
+     * start with a version no other table had, so results computed
+     * from a table are current as long as the version is the same.
+     */
+    long getVersion() {
+        return version;
     }
 
     /**
@@ -123,10 +335,28 @@ public class Table {
     }
 
     /**
-     * gets row object at index in table.
+     * builds the row object at index in table.
      */
     Row getRow(int index) {
-        return rows.get(index);
+        Row r = new Row();
+        for (Column c : columns) {
+            r.addElement(c.get(index));
+        }
+        return r;
+    }
+
+    /**
+     * gets the element in column col of row row.
+     */
+    Element getElement(int row, int col) {
+        return columns.get(col).get(row);
+    }
+
+    /**
+     * gets the column at index.
+     */
+    Column getColumn(int index) {
+        return columns.get(index);
     }
 
     /**
@@ -140,7 +370,7 @@ public class Table {
      * Returns the number of rows in the table
      */
     int getNumRows() {
-        return rows.size();
+        return numRows;
     }
 
     /**
@@ -164,6 +394,22 @@ public class Table {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(400);
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            //a StringBuilder doesn't throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the string representation of the table to out. Rows are
+     * formatted into a buffer that is handed to out every
+     * WRITE_BUFFER_SIZE chars, so the whole text is never held at once.
+     */
+    void writeTo(Appendable out) throws IOException {
+        StringBuilder sb = out instanceof StringBuilder
+                ? (StringBuilder) out : new StringBuilder(WRITE_BUFFER_SIZE + 400);
         String sep = "";
 
         ArrayList<String> names = getColumnNames();
@@ -182,35 +428,21 @@ public class Table {
                 sb.append("\n");
             }
             sep = "";
-            Row r = getRow(i);
             for (int j = 0; j < getNumCols(); j++) {
                 sb.append(sep);
-                Element e = r.getElement(j);
-                if (e.type().equals("float")) {
-                    sb.append(String.format("%.3f", (Double) e.value()));
-                } else {
-                    sb.append(e.value());
-                }
+                columns.get(j).appendTo(sb, i);
                 sep = ",";
             }
             if (i != getNumRows() - 1) {
                 sb.append("\n");
             }
+            if (sb != out && sb.length() >= WRITE_BUFFER_SIZE) {
+                out.append(sb);
+                sb.setLength(0);
+            }
         }
-        return sb.toString();
-    }
-
-
-    /**
-     * Copies all the column data from src.columnName to
-     * dest.
-     */
-    static void copyColumn(Table src, Table dest, String columnName) {
-        int index = src.indexOfColumn(columnName);
-        ArrayList<Element> elements = new ArrayList<>();
-        for (int r = 0; r < src.getNumRows(); r++) {
-            elements.add(src.getRow(r).getElement(index));
+        if (sb != out) {
+            out.append(sb);
         }
-        dest.addColumn(src.getColumnNames().get(index), src.getColumnTypes().get(index), elements);
     }
 }
@@ -0,0 +1,377 @@
+package db;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes tables in a binary columnar format. A file starts
+ * with the schema and the row count, followed by one block per column:
+ * fixed width ints or doubles, or string offsets followed by a heap of
+ * UTF-8 bytes. Files are read through a memory mapping, moved along
+ * the file a window at a time so files larger than one mapping can be
+ * read, and int and float blocks are copied straight into the column
+ * arrays.
+ */
+class TableFile {
+
+    static final String EXTENSION = ".tbin";
+
+    private static final int MAGIC = 0x54424C31;
+    private static final byte INT = 0, FLOAT = 1, STRING = 2, GENERIC = 3;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Bytes of a file mapped at a time while it is read.
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Writes table t to filename.
+     */
+    static void write(Table t, String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(t, channel);
+        }
+    }
+
+    /**
+     * Writes table t to channel.
+     */
+    static void write(Table t, WritableByteChannel channel) throws IOException {
+        Output out = new Output(channel);
+        int numRows = t.getNumRows();
+        out.putInt(MAGIC);
+        out.putInt(t.getNumCols());
+        out.putInt(numRows);
+        for (int i = 0; i < t.getNumCols(); i++) {
+            out.putString(t.getColumnNames().get(i));
+            out.putString(t.getColumnTypes().get(i));
+            out.put(storageOf(t.getColumn(i)));
+        }
+        for (int i = 0; i < t.getNumCols(); i++) {
+            writeColumn(out, t.getColumn(i), numRows);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the table stored in filename and names it name.
+     */
+    static Table read(String name, String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return read(name, new Input(channel));
+        }
+    }
+
+    private static Table read(String name, Input in) throws IOException {
+        try {
+            return readTable(name, in);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated table", e);
+        }
+    }
+
+    private static Table readTable(String name, Input buf) throws IOException {
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("Not a table file");
+        }
+        int numCols = buf.getInt();
+        int numRows = buf.getInt();
+        ArrayList<String> names = new ArrayList<>(numCols);
+        ArrayList<String> types = new ArrayList<>(numCols);
+        byte[] storage = new byte[numCols];
+        for (int i = 0; i < numCols; i++) {
+            names.add(getString(buf));
+            types.add(getString(buf));
+            storage[i] = buf.get();
+        }
+
+        Table t = new Table(name, new ArrayList<>(), new ArrayList<>());
+        for (int i = 0; i < numCols; i++) {
+            t.addColumn(names.get(i), types.get(i), readColumn(buf, storage[i], numRows));
+        }
+        return t;
+    }
+
+    /**
+     * Returns how the values of c are laid out in the file.
+     */
+    private static byte storageOf(Column c) {
+        if (c instanceof IntColumn) {
+            return INT;
+        } else if (c instanceof FloatColumn) {
+            return FLOAT;
+        } else if (c instanceof StringColumn) {
+            return STRING;
+        }
+        return GENERIC;
+    }
+
+    private static void writeColumn(Output out, Column c, int n) throws IOException {
+        if (c instanceof GenericColumn) {
+            //one type tag per value, followed by the value itself
+            for (int i = 0; i < n; i++) {
+                Element e = c.get(i);
+                out.put((byte) e.type().ordinal());
+                switch (e.type()) {
+                    case INT:
+                        out.putInt(e.intValue());
+                        break;
+                    case FLOAT:
+                        out.putDouble(e.floatValue());
+                        break;
+                    case STRING:
+                        out.putString(e.stringValue());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return;
+        }
+
+        out.put((byte) (c.hasKinds() ? 1 : 0));
+        if (c.hasKinds()) {
+            for (int i = 0; i < n; i++) {
+                out.put(c.kindAt(i));
+            }
+        }
+        if (c instanceof IntColumn) {
+            IntColumn ints = (IntColumn) c;
+            for (int i = 0; i < n; i++) {
+                out.putInt(ints.getInt(i));
+            }
+        } else if (c instanceof FloatColumn) {
+            FloatColumn floats = (FloatColumn) c;
+            for (int i = 0; i < n; i++) {
+                out.putDouble(floats.getFloat(i));
+            }
+        } else {
+            StringColumn strings = (StringColumn) c;
+            byte[][] bytes = new byte[n][];
+            int offset = 0;
+            out.putInt(offset);
+            for (int i = 0; i < n; i++) {
+                String s = strings.kindAt(i) == Column.VALUE ? strings.getString(i) : null;
+                bytes[i] = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+                offset += bytes[i].length;
+                out.putInt(offset);
+            }
+            for (byte[] b : bytes) {
+                out.put(b);
+            }
+        }
+    }
+
+    private static Column readColumn(Input buf, byte storage, int n) throws IOException {
+        if (storage == GENERIC) {
+            Column c = new GenericColumn(n);
+            for (int i = 0; i < n; i++) {
+                Type type = Type.values()[buf.get()];
+                switch (type) {
+                    case INT:
+                        c = c.append(Element.ofInt(buf.getInt()));
+                        break;
+                    case FLOAT:
+                        c = c.append(Element.ofFloat(buf.getDouble()));
+                        break;
+                    case STRING:
+                        c = c.append(Element.ofString(getString(buf)));
+                        break;
+                    case NAN:
+                        c = c.append(Element.nan());
+                        break;
+                    default:
+                        c = c.append(Element.novalue());
+                        break;
+                }
+            }
+            return c;
+        }
+
+        byte[] kinds = null;
+        if (buf.get() == 1) {
+            kinds = new byte[n];
+            buf.get(kinds);
+        }
+        switch (storage) {
+            case INT:
+                int[] ints = new int[n];
+                buf.get(ints);
+                return new IntColumn(ints, kinds);
+            case FLOAT:
+                double[] doubles = new double[n];
+                buf.get(doubles);
+                return new FloatColumn(doubles, kinds);
+            case STRING:
+                int[] offsets = new int[n + 1];
+                buf.get(offsets);
+                byte[] heap = new byte[offsets[n]];
+                buf.get(heap);
+                String[] strings = new String[n];
+                for (int i = 0; i < n; i++) {
+                    if (kinds == null || kinds[i] == Column.VALUE) {
+                        strings[i] = new String(heap, offsets[i], offsets[i + 1] - offsets[i],
+                                StandardCharsets.UTF_8);
+                    }
+                }
+                return new StringColumn(strings, kinds);
+            default:
+                throw new IOException("Unknown column storage " + storage);
+        }
+    }
+
+    private static String getString(Input buf) throws IOException {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a file through a mapping of up to WINDOW_SIZE bytes that
+     * is moved along as the file is read.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private final long size;
+        //position in the file of the start of buf
+        private long base;
+        private ByteBuffer buf;
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            base = position;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(WINDOW_SIZE, size - position));
+        }
+
+        /**
+         * Makes sure the next bytes bytes are in buf, moving the
+         * mapping if they aren't.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                long position = base + buf.position();
+                if (size - position < bytes) {
+                    throw new BufferUnderflowException();
+                }
+                map(position);
+            }
+        }
+
+        byte get() throws IOException {
+            ensure(1);
+            return buf.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buf.getInt();
+        }
+
+        void get(byte[] b) throws IOException {
+            int offset = 0;
+            while (offset < b.length) {
+                ensure(1);
+                int length = Math.min(buf.remaining(), b.length - offset);
+                buf.get(b, offset, length);
+                offset += length;
+            }
+        }
+
+        void get(int[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(4);
+                int length = Math.min(buf.remaining() / 4, values.length - offset);
+                buf.asIntBuffer().get(values, offset, length);
+                buf.position(buf.position() + length * 4);
+                offset += length;
+            }
+        }
+
+        void get(double[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(8);
+                int length = Math.min(buf.remaining() / 8, values.length - offset);
+                buf.asDoubleBuffer().get(values, offset, length);
+                buf.position(buf.position() + length * 8);
+                offset += length;
+            }
+        }
+
+        double getDouble() throws IOException {
+            ensure(8);
+            return buf.getDouble();
+        }
+    }
+
+    /**
+     * Buffers writes to a channel.
+     */
+    private static class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void put(byte b) throws IOException {
+            ensure(1);
+            buf.put(b);
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buf.putInt(i);
+        }
+
+        void putDouble(double d) throws IOException {
+            ensure(8);
+            buf.putDouble(d);
+        }
+
+        void put(byte[] b) throws IOException {
+            int offset = 0;
+            while (offset < b.length) {
+                ensure(1);
+                int length = Math.min(buf.remaining(), b.length - offset);
+                buf.put(b, offset, length);
+                offset += length;
+            }
+        }
+
+        void putString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            putInt(b.length);
+            put(b);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+    }
+}
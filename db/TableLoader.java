@@ -0,0 +1,414 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk loader for .tbl files. The rows of a file are split into line
+ * aligned chunks that are parsed in parallel, each cell directly into
+ * the type its column was declared with. The parsed chunks are then
+ * appended to the new table in file order, which gives the same table
+ * and the same first error as inserting the rows one by one.
+ */
+class TableLoader {
+
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /**
+     * Loads filename into the table name of db, replacing any table
+     * with that name. Returns false without changing db if the header
+     * isn't a list of int, float and string columns, which is left to
+     * the row by row loader. Throws the error of the first row that
+     * could not be inserted; the rows before it are kept.
+     */
+    static boolean load(Database db, String name, String filename)
+            throws IOException, ParsingException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            //the file is split on \n bytes, which needs a charset that encodes
+            //every line break and comma as a single byte
+            Charset charset = Charset.defaultCharset();
+            if (!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1) {
+                return false;
+            }
+            long size = channel.size();
+            long[] dataStart = new long[1];
+            String header = readHeader(channel, size, dataStart, charset);
+            if (header == null) {
+                return false;
+            }
+
+            ArrayList<String> names = new ArrayList<>();
+            ArrayList<String> types = new ArrayList<>();
+            if (Parser.parseColumns(header.split(","), names, types) != null) {
+                return false;
+            }
+            Type[] columnTypes = new Type[types.size()];
+            for (int i = 0; i < columnTypes.length; i++) {
+                columnTypes[i] = Type.of(types.get(i));
+                if (columnTypes[i] == null || columnTypes[i].isNull()) {
+                    return false;
+                }
+            }
+
+            List<Chunk> chunks = parse(channel, dataStart[0], size, columnTypes, charset);
+
+            int numRows = 0;
+            String error = null;
+            for (Chunk chunk : chunks) {
+                numRows += chunk.rows;
+                if (chunk.error != null) {
+                    error = chunk.error;
+                    break;
+                }
+            }
+            Column[] columns = new Column[columnTypes.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = merge(chunks, i, columnTypes[i], numRows);
+            }
+            Table t = new Table(name, names, types);
+            t.appendRows(columns, numRows);
+            db.putTable(t);
+            if (error != null) {
+                throw new ParsingException(error);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the first line of the file. Sets start[0] to the position
+     * of the line after it and returns null if the file is empty.
+     */
+    private static String readHeader(FileChannel channel, long size, long[] start, Charset charset)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+        byte[] line = new byte[0];
+        long pos = 0;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == '\n' || b == '\r') {
+                    line = append(line, buf.array(), i);
+                    long end = pos + i + 1;
+                    if (b == '\r' && end < size && byteAt(channel, end) == '\n') {
+                        end++;
+                    }
+                    start[0] = end;
+                    return new String(line, charset);
+                }
+            }
+            line = append(line, buf.array(), n);
+            pos += n;
+        }
+        start[0] = size;
+        return size == 0 ? null : new String(line, charset);
+    }
+
+    private static byte[] append(byte[] a, byte[] b, int n) {
+        byte[] result = Arrays.copyOf(a, a.length + n);
+        System.arraycopy(b, 0, result, a.length, n);
+        return result;
+    }
+
+    private static byte byteAt(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        channel.read(buf, pos);
+        return buf.get(0);
+    }
+
+    /**
+     * Splits the bytes from start to size into chunks that end after
+     * a line break and parses them on the shared fork-join pool.
+     */
+    private static List<Chunk> parse(FileChannel channel, long start, long size, Type[] types,
+                                     Charset charset) throws IOException {
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = start + CHUNK_SIZE < size ? nextLine(channel, start + CHUNK_SIZE, size) : size;
+            chunks.add(new Chunk(channel, start, end, types, charset));
+            start = end;
+        }
+        if (chunks.size() <= 1) {
+            for (Chunk chunk : chunks) {
+                chunk.call();
+            }
+            return chunks;
+        }
+
+        try {
+            for (Future<Chunk> f : Parallel.POOL.invokeAll(chunks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the position after the first \n at or after pos.
+     */
+    private static long nextLine(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * Concatenates the values of column col parsed by the chunks,
+     * up to numRows rows.
+     */
+    private static Column merge(List<Chunk> chunks, int col, Type type, int numRows) {
+        int[] ints = type == Type.INT ? new int[numRows] : null;
+        double[] floats = type == Type.FLOAT ? new double[numRows] : null;
+        String[] strings = type == Type.STRING ? new String[numRows] : null;
+        byte[] kinds = null;
+
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            if (offset == numRows) {
+                break;
+            }
+            ColumnBuilder b = chunk.columns[col];
+            int n = chunk.rows;
+            if (ints != null) {
+                System.arraycopy(b.ints, 0, ints, offset, n);
+            } else if (floats != null) {
+                System.arraycopy(b.floats, 0, floats, offset, n);
+            } else {
+                System.arraycopy(b.strings, 0, strings, offset, n);
+            }
+            if (b.kinds != null) {
+                if (kinds == null) {
+                    kinds = new byte[numRows];
+                }
+                System.arraycopy(b.kinds, 0, kinds, offset, n);
+            }
+            offset += n;
+        }
+
+        if (ints != null) {
+            return new IntColumn(ints, kinds);
+        } else if (floats != null) {
+            return new FloatColumn(floats, kinds);
+        }
+        return new StringColumn(strings, kinds);
+    }
+
+    /**
+     * The rows between two positions of the file. Parsing stops at
+     * the first row that can't be inserted.
+     */
+    private static class Chunk implements Callable<Chunk> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final Type[] types;
+        private final Charset charset;
+
+        ColumnBuilder[] columns;
+        int rows;
+        String error;
+
+        Chunk(FileChannel channel, long start, long end, Type[] types, Charset charset) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.types = types;
+            this.charset = charset;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            byte[] bytes = new byte[(int) (end - start)];
+            buf.get(bytes);
+            String text = new String(bytes, charset);
+
+            int capacity = Math.max(16, bytes.length / (8 * types.length));
+            columns = new ColumnBuilder[types.length];
+            for (int i = 0; i < types.length; i++) {
+                columns[i] = new ColumnBuilder(types[i], capacity);
+            }
+
+            //lines end at \n, \r or \r\n like BufferedReader.readLine
+            int i = 0;
+            int n = text.length();
+            while (i < n) {
+                int lineEnd = i;
+                while (lineEnd < n && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                try {
+                    addRow(text.substring(i, lineEnd).split(","));
+                } catch (ParsingException e) {
+                    error = e.getMessage();
+                    return this;
+                }
+                i = lineEnd + 1;
+                if (lineEnd + 1 < n && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n') {
+                    i++;
+                }
+            }
+            return this;
+        }
+
+        private void addRow(String[] values) throws ParsingException {
+            if (values.length != types.length) {
+                throw new ParsingException("ERROR: Incorrect amount of values to insert into row");
+            }
+            for (int i = 0; i < values.length; i++) {
+                columns[i].add(values[i], rows);
+            }
+            rows++;
+        }
+    }
+
+    /**
+     * Growable primitive array for the values of one column of a chunk.
+     */
+    private static class ColumnBuilder {
+        private final Type type;
+        int[] ints;
+        double[] floats;
+        String[] strings;
+        byte[] kinds;
+
+        ColumnBuilder(Type type, int capacity) {
+            this.type = type;
+            switch (type) {
+                case INT:
+                    ints = new int[capacity];
+                    break;
+                case FLOAT:
+                    floats = new double[capacity];
+                    break;
+                default:
+                    strings = new String[capacity];
+                    break;
+            }
+        }
+
+        /**
+         * Parses value into the cell at row. Values in the usual form
+         * of the column's type skip Element.createFromLiteral.
+         */
+        void add(String value, int row) throws ParsingException {
+            grow(row + 1);
+            switch (type) {
+                case INT:
+                    if (isPlainInt(value)) {
+                        ints[row] = Integer.parseInt(value);
+                        return;
+                    }
+                    break;
+                case FLOAT:
+                    if (value.indexOf('.') >= 0 && value.indexOf('\'') < 0) {
+                        try {
+                            floats[row] = Double.parseDouble(value);
+                            return;
+                        } catch (NumberFormatException e) {
+                            throw new ParsingException("ERROR: Cannot determine type " + value);
+                        }
+                    }
+                    break;
+                default:
+                    if (value.indexOf('\'') >= 0) {
+                        strings[row] = value;
+                        return;
+                    }
+                    break;
+            }
+
+            Element e = Element.createFromLiteral(value);
+            if (e.type() == Type.INT && ints != null) {
+                ints[row] = e.intValue();
+            } else if (e.type() == Type.FLOAT && floats != null) {
+                floats[row] = e.floatValue();
+            } else if (e.type() == Type.NAN || e.type() == Type.NOVALUE) {
+                if (kinds == null) {
+                    kinds = new byte[capacity()];
+                }
+                kinds[row] = e.type() == Type.NAN ? Column.NAN : Column.NOVALUE;
+            } else {
+                throw new ParsingException("ERROR: Invalid type insertion " + value
+                        + " expecting " + type);
+            }
+        }
+
+        /**
+         * Returns true for an optional sign followed by at most nine
+         * digits, which Integer.parseInt accepts without overflow.
+         */
+        private static boolean isPlainInt(String s) {
+            int i = s.startsWith("-") || s.startsWith("+") ? 1 : 0;
+            if (s.length() == i || s.length() - i > 9) {
+                return false;
+            }
+            for (; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int capacity() {
+            return ints != null ? ints.length : floats != null ? floats.length : strings.length;
+        }
+
+        private void grow(int needed) {
+            int capacity = capacity();
+            if (needed <= capacity) {
+                return;
+            }
+            int c = Column.newCapacity(capacity, needed);
+            if (ints != null) {
+                ints = Arrays.copyOf(ints, c);
+            } else if (floats != null) {
+                floats = Arrays.copyOf(floats, c);
+            } else {
+                strings = Arrays.copyOf(strings, c);
+            }
+            if (kinds != null) {
+                kinds = Arrays.copyOf(kinds, c);
+            }
+        }
+    }
+}
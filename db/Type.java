@@ -0,0 +1,47 @@
+package db;
+
+/**
+ * The types an element can have. The name of a type is the
+ * string used for it in queries and table files.
+ */
+enum Type {
+    INT("int"), FLOAT("float"), STRING("string"), NAN("NaN"), NOVALUE("NOVALUE");
+
+    private final String name;
+
+    Type(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the type called name, or null if there is none.
+     */
+    static Type of(String name) {
+        for (Type t : values()) {
+            if (t.is(name)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true for NaN and NOVALUE, which may be stored in
+     * a column of any type.
+     */
+    boolean isNull() {
+        return this == NAN || this == NOVALUE;
+    }
+
+    /**
+     * Returns true if this type is the column type name.
+     */
+    boolean is(String name) {
+        return this.name.equals(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
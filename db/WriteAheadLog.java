@@ -0,0 +1,609 @@
+package db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes made to a Database. Each record is
+ * preceded by its length and a CRC32 of its bytes, so a record that was
+ * only partly written when the process died is recognized on replay and
+ * cut off, together with anything after it. Loaded tables and tables
+ * created from a select aren't copied into the log: they are written
+ * as binary table images to the directory next to the log named like
+ * it with .images appended, and their records name the image.
+ * A checkpoint starts the log again with a record naming an image of
+ * every table, followed by the records appended since the images were
+ * taken, and deletes the images no longer named. Positions in the log
+ * count every byte ever appended, so they keep growing across
+ * checkpoints.
+ */
+class WriteAheadLog implements Closeable {
+
+    static final byte CREATE = 1, INSERT = 2, DROP = 3, LOAD = 4, TABLE = 5, VIEW = 6,
+            CHECKPOINT = 7;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String IMAGES = ".images";
+    private static final String NEW = ".new";
+
+    private final Path path;
+    private final Path images;
+    //number of the next image written
+    private final AtomicLong nextImage;
+    //images written that no record in the log names yet
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final SyncPolicy policy;
+    private final ScheduledExecutorService flusher;
+    private final Object syncLock = new Object();
+
+    //only replaced by a checkpoint, under syncLock
+    private volatile FileChannel channel;
+    //position of the first byte of the file, changed by a checkpoint
+    private volatile long base;
+    //position after the last record, only changed by the one thread appending at a time
+    private volatile long written;
+    //bytes forced to disk, guarded by syncLock
+    private long synced;
+    private volatile IOException flushError;
+
+    /**
+     * Opens the log in filename, creating it if needed. With
+     * SyncPolicy.GROUP the log is forced every groupCommitMillis for
+     * the statements committed since.
+     */
+    WriteAheadLog(String filename, SyncPolicy policy, long groupCommitMillis) throws IOException {
+        this.path = Paths.get(filename);
+        //a checkpoint that didn't finish
+        Files.deleteIfExists(Paths.get(filename + NEW));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.images = Paths.get(filename + IMAGES);
+        this.nextImage = new AtomicLong(lastImage() + 1);
+        this.policy = policy;
+        if (policy == SyncPolicy.GROUP) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, groupCommitMillis, groupCommitMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Passes every complete record in the log to handler in the order
+     * they were written, reading one record at a time. A torn or
+     * corrupt record and everything after it is truncated, and new
+     * records are appended after the last good one. A record the
+     * handler can't apply stops the replay with an error and leaves
+     * the log as it is. Images no record names are deleted.
+     */
+    void replay(RecordHandler handler) throws IOException {
+        Set<String> named = new HashSet<>();
+        long size = channel.size();
+        long end = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (size - end >= HEADER_SIZE) {
+            header.clear();
+            readFully(header, end);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length <= 0 || length > size - end - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, end + HEADER_SIZE);
+            payload.flip();
+            CRC32 checksum = new CRC32();
+            checksum.update(payload.duplicate());
+            if ((int) checksum.getValue() != crc) {
+                break;
+            }
+            try {
+                handler.accept(new Record(payload, named));
+            } catch (IOException e) {
+                throw new IOException("Cannot replay log record at byte " + end + ": "
+                        + e.getMessage(), e);
+            }
+            end += HEADER_SIZE + length;
+        }
+        if (end < size) {
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+        written = end;
+        synchronized (syncLock) {
+            synced = end;
+        }
+        deleteImagesExcept(named);
+    }
+
+    /**
+     * Fills buf from the log, starting at position.
+     */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Log ends in a record");
+            }
+        }
+    }
+
+    /**
+     * Returns the highest number of an image in the image directory,
+     * or 0 if there are none.
+     */
+    private long lastImage() throws IOException {
+        long last = 0;
+        if (Files.isDirectory(images)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(images)) {
+                for (Path file : files) {
+                    last = Math.max(last, imageNumber(file.getFileName().toString()));
+                }
+            }
+        }
+        return last;
+    }
+
+    private static long imageNumber(String image) {
+        if (!image.endsWith(TableFile.EXTENSION)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(image.substring(0, image.length() - TableFile.EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes every image but the ones in keep and the ones written
+     * for records not appended yet.
+     */
+    private void deleteImagesExcept(Set<String> keep) throws IOException {
+        if (!Files.isDirectory(images)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(images)) {
+            for (Path file : files) {
+                String image = file.getFileName().toString();
+                if (!keep.contains(image) && !pending.contains(image)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes table t as a new image, forced to disk, and returns the
+     * name a record refers to it by. The table is written straight to
+     * the file, so it is never held in memory a second time. The image
+     * is kept until it is deleted or imageLogged is called for it.
+     */
+    String writeImage(Table t) throws IOException {
+        if (!Files.isDirectory(images)) {
+            Files.createDirectories(images);
+            syncDirectory(images.toAbsolutePath().getParent());
+        }
+        String image = nextImage.getAndIncrement() + TableFile.EXTENSION;
+        pending.add(image);
+        try (FileChannel file = FileChannel.open(images.resolve(image),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            TableFile.write(t, file);
+            file.force(true);
+        } catch (IOException e) {
+            deleteImage(image);
+            throw e;
+        }
+        syncDirectory(images);
+        return image;
+    }
+
+    /**
+     * Deletes an image written by writeImage that no record refers to.
+     */
+    void deleteImage(String image) {
+        try {
+            Files.deleteIfExists(images.resolve(image));
+        } catch (IOException e) {
+            //deleted on the next replay instead
+        }
+        pending.remove(image);
+    }
+
+    /**
+     * Tells the log that a record naming image was appended, so the
+     * image is kept for as long as a record names it.
+     */
+    void imageLogged(String image) {
+        pending.remove(image);
+    }
+
+    /**
+     * Forces the entries of directory to disk, where the platform
+     * allows a directory to be opened for that.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            //not supported for directories on some platforms
+        }
+    }
+
+    /**
+     * Writes record, as built by one of the static methods, to the end
+     * of the log and returns the log size after it. Records are only
+     * appended by one thread at a time.
+     */
+    long append(byte[] record) throws IOException {
+        long end = channel.position();
+        try {
+            writeFully(channel, ByteBuffer.wrap(record));
+        } catch (IOException e) {
+            //drop the partial record so later ones aren't lost on replay
+            channel.truncate(end);
+            channel.position(end);
+            throw e;
+        }
+        written += record.length;
+        return written;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * Returns the position after the last record appended.
+     */
+    long getPosition() {
+        return written;
+    }
+
+    /**
+     * Returns the number of bytes in the log file.
+     */
+    long size() {
+        return written - base;
+    }
+
+    /**
+     * Starts the log again with record, a checkpoint naming the images
+     * taken, followed by the records appended since position mark. The new log
+     * is written next to the log, forced and moved over it, so a crash
+     * leaves either the old log or the new one. Records are only
+     * appended by the caller during the checkpoint.
+     */
+    void checkpoint(byte[] record, long mark, Collection<String> taken) throws IOException {
+        Path next = Paths.get(path + NEW);
+        Set<String> keep = new HashSet<>(taken);
+        FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            writeFully(out, ByteBuffer.wrap(record));
+            copyRecords(mark - base, out, keep);
+            out.force(true);
+            Files.move(next, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            out.close();
+            Files.deleteIfExists(next);
+            throw e;
+        }
+        syncDirectory(path.toAbsolutePath().getParent());
+        FileChannel old;
+        synchronized (syncLock) {
+            old = channel;
+            channel = out;
+            base = written - out.size();
+            synced = written;
+            syncLock.notifyAll();
+        }
+        pending.removeAll(taken);
+        try {
+            old.close();
+            deleteImagesExcept(keep);
+        } catch (IOException e) {
+            //images left over are deleted on the next replay
+        }
+    }
+
+    /**
+     * Copies the records of the file from position from on to out,
+     * adding the images they name to named.
+     */
+    private void copyRecords(long from, FileChannel out, Set<String> named) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long end = written - base;
+        while (from < end) {
+            header.clear();
+            readFully(header, from);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, from + HEADER_SIZE);
+            payload.flip();
+            header.flip();
+            writeFully(out, header);
+            writeFully(out, payload.duplicate());
+            Record r = new Record(payload, named);
+            if (r.type == LOAD || r.type == TABLE) {
+                r.getString();
+                named.add(r.getString());
+            }
+            from += HEADER_SIZE + payload.limit();
+        }
+    }
+
+    /**
+     * Returns once the log up to position is on disk as far as the
+     * sync policy asks for. With SyncPolicy.GROUP that is once the
+     * next force of the flusher thread covers position.
+     */
+    void commit(long position) throws IOException {
+        if (flushError != null) {
+            throw flushError;
+        }
+        if (policy == SyncPolicy.ALWAYS) {
+            sync(position);
+        } else if (policy == SyncPolicy.GROUP) {
+            awaitSync(position);
+        }
+    }
+
+    /**
+     * Waits for the flusher to force the log up to position.
+     */
+    private void awaitSync(long position) throws IOException {
+        synchronized (syncLock) {
+            while (synced < position) {
+                if (flushError != null) {
+                    throw flushError;
+                }
+                if (flusher.isShutdown()) {
+                    sync(position);
+                    return;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for log sync");
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the log to disk unless it is already forced up to
+     * position. Callers waiting on the same force share it, which
+     * groups the commits of concurrent statements.
+     */
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long end = written;
+            channel.force(false);
+            synced = end;
+            syncLock.notifyAll();
+        }
+    }
+
+    private void flush() {
+        try {
+            sync(written);
+        } catch (IOException e) {
+            synchronized (syncLock) {
+                flushError = e;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync(written);
+        channel.close();
+    }
+
+    /**
+     * create table name (names[i] types[i], ...)
+     */
+    static byte[] create(String name, ArrayList<String> names, ArrayList<String> types)
+            throws IOException {
+        RecordBuilder r = new RecordBuilder(CREATE);
+        r.putString(name);
+        r.out.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            r.putString(names.get(i));
+            r.putString(types.get(i));
+        }
+        return r.frame();
+    }
+
+    /**
+     * insert into name values values
+     */
+    static byte[] insert(String name, String[] values) throws IOException {
+        RecordBuilder r = new RecordBuilder(INSERT);
+        r.putString(name);
+        r.out.writeInt(values.length);
+        for (String value : values) {
+            r.putString(value);
+        }
+        return r.frame();
+    }
+
+    /**
+     * drop table name
+     */
+    static byte[] drop(String name) throws IOException {
+        RecordBuilder r = new RecordBuilder(DROP);
+        r.putString(name);
+        return r.frame();
+    }
+
+    /**
+     * load name or load binary name, with the loaded rows in image, so
+     * replay doesn't read the file as it is by then.
+     */
+    static byte[] load(String name, String image) throws IOException {
+        return image(LOAD, name, image);
+    }
+
+    /**
+     * Adds table name with the rows in image.
+     */
+    static byte[] table(String name, String image) throws IOException {
+        return image(TABLE, name, image);
+    }
+
+    private static byte[] image(byte type, String name, String image) throws IOException {
+        RecordBuilder r = new RecordBuilder(type);
+        r.putString(name);
+        r.putString(image);
+        return r.frame();
+    }
+
+    /**
+     * Every table, with its rows in the image images maps its name to,
+     * and every materialized view, with the select selects maps its
+     * name to. The rows of the views are in the images as well.
+     */
+    static byte[] checkpoint(Map<String, String> images, Map<String, String> selects)
+            throws IOException {
+        RecordBuilder r = new RecordBuilder(CHECKPOINT);
+        r.out.writeInt(images.size());
+        for (Map.Entry<String, String> e : images.entrySet()) {
+            r.putString(e.getKey());
+            r.putString(e.getValue());
+        }
+        r.out.writeInt(selects.size());
+        for (Map.Entry<String, String> e : selects.entrySet()) {
+            r.putString(e.getKey());
+            r.putString(e.getValue());
+        }
+        return r.frame();
+    }
+
+    /**
+     * create materialized view name as select select. The rows of the
+     * view aren't logged, they are computed again on replay.
+     */
+    static byte[] view(String name, String select) throws IOException {
+        RecordBuilder r = new RecordBuilder(VIEW);
+        r.putString(name);
+        r.putString(select);
+        return r.frame();
+    }
+
+    /**
+     * Applies the records read back from the log.
+     */
+    interface RecordHandler {
+        void accept(Record r) throws IOException;
+    }
+
+    /**
+     * A record read back from the log.
+     */
+    class Record {
+        final byte type;
+        private final ByteBuffer buf;
+        private final Set<String> named;
+
+        Record(ByteBuffer buf, Set<String> named) {
+            this.buf = buf;
+            this.named = named;
+            this.type = buf.get();
+        }
+
+        int getInt() {
+            return buf.getInt();
+        }
+
+        String getString() {
+            byte[] b = new byte[buf.getInt()];
+            buf.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the image the record names next as table name.
+         */
+        Table getImage(String name) throws IOException {
+            String image = getString();
+            named.add(image);
+            return TableFile.read(name, images.resolve(image).toString());
+        }
+    }
+
+    /**
+     * Builds the bytes of a record and frames them.
+     */
+    private static class RecordBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        RecordBuilder(byte type) throws IOException {
+            out.writeByte(type);
+        }
+
+        void putString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        byte[] frame() throws IOException {
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(payload);
+            ByteBuffer framed = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+            framed.putInt(payload.length);
+            framed.putInt((int) checksum.getValue());
+            framed.put(payload);
+            return framed.array();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * The smallest and largest value of every block of BLOCK_SIZE rows of
+ * a column. A where scan skips the blocks whose range shows that none
+ * of their rows can satisfy a comparison with a literal, which on
+ * columns that are appended roughly in order leaves only a few blocks
+ * to look at. Blocks holding a NaN, which satisfies every comparison,
+ * or values that can't be compared with the literal are never skipped.
+ * Snapshots read views of the zone map, which keep the arrays of the
+ * blocks they were taken with while rows added later grow the arrays
+ * of the zone map into new copies.
+ */
+class ZoneMap {
+
+    static final int BLOCK_SIZE = 1024;
+
+    private static final byte NUMBERS = 1, STRINGS = 2, NANS = 4;
+
+    //what each block holds, and the range of its numbers or strings
+    private byte[] flags = new byte[0];
+    private double[] low = new double[0];
+    private double[] high = new double[0];
+    private String[] lowString = new String[0];
+    private String[] highString = new String[0];
+    private int numRows;
+
+    ZoneMap() {
+    }
+
+    private ZoneMap(ZoneMap zm) {
+        flags = zm.flags;
+        low = zm.low;
+        high = zm.high;
+        lowString = zm.lowString;
+        highString = zm.highString;
+        numRows = zm.numRows;
+    }
+
+    /**
+     * Returns a view of the blocks of the rows added so far, for a
+     * snapshot to read while rows are added. Later rows only write to
+     * the arrays of the view to widen the range of its last block, or
+     * to fill blocks past its rows, so every block it holds still
+     * covers the values of its rows. The caller holds the commit lock
+     * of the database, which rows are added under.
+     */
+    ZoneMap view() {
+        return new ZoneMap(this);
+    }
+
+    /**
+     * Adds the value e of the next row.
+     */
+    void add(Element e) {
+        int block = startRow();
+        switch (e.type()) {
+            case NAN:
+                flags[block] |= NANS;
+                break;
+            case NOVALUE:
+                break;
+            case INT:
+                addNumber(block, e.intValue());
+                break;
+            case FLOAT:
+                addNumber(block, e.floatValue());
+                break;
+            default:
+                addString(block, e.stringValue());
+                break;
+        }
+    }
+
+    /**
+     * Adds the values of c from row from to row to (exclusive) as
+     * the next rows.
+     */
+    void addAll(Column c, int from, int to) {
+        byte[] kinds = c.getKinds();
+        if (c instanceof IntColumn || c instanceof FloatColumn) {
+            int[] ints = c instanceof IntColumn ? ((IntColumn) c).getInts() : null;
+            double[] floats = ints == null ? ((FloatColumn) c).getFloats() : null;
+            for (int i = from; i < to; i++) {
+                int block = startRow();
+                if (kinds == null || kinds[i] == Column.VALUE) {
+                    addNumber(block, ints != null ? ints[i] : floats[i]);
+                } else if (kinds[i] == Column.NAN) {
+                    flags[block] |= NANS;
+                }
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                add(c.get(i));
+            }
+        }
+    }
+
+    /**
+     * Counts a new row and returns its block, growing the arrays into
+     * new copies when it starts a block past their end, so views keep
+     * theirs unchanged.
+     */
+    private int startRow() {
+        int block = numRows / BLOCK_SIZE;
+        if (block == flags.length) {
+            int capacity = Math.max(16, block * 2);
+            low = Arrays.copyOf(low, capacity);
+            high = Arrays.copyOf(high, capacity);
+            lowString = Arrays.copyOf(lowString, capacity);
+            highString = Arrays.copyOf(highString, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        numRows++;
+        return block;
+    }
+
+    private void addNumber(int block, double v) {
+        //a NaN computed into a float value compares like a NaN cell
+        if (Double.isNaN(v)) {
+            flags[block] |= NANS;
+        } else if ((flags[block] & NUMBERS) == 0) {
+            low[block] = v;
+            high[block] = v;
+            flags[block] |= NUMBERS;
+        } else if (v < low[block]) {
+            low[block] = v;
+        } else if (v > high[block]) {
+            high[block] = v;
+        }
+    }
+
+    private void addString(int block, String v) {
+        if ((flags[block] & STRINGS) == 0) {
+            lowString[block] = v;
+            highString[block] = v;
+            flags[block] |= STRINGS;
+        } else if (v.compareTo(lowString[block]) < 0) {
+            lowString[block] = v;
+        } else if (v.compareTo(highString[block]) > 0) {
+            highString[block] = v;
+        }
+    }
+
+    /**
+     * Returns false if no row of block satisfies column op literal,
+     * true if some may. Only ==, <, <=, > and >= are answered, any
+     * other comparison may match. block holds some of the rows added
+     * before the view was taken.
+     */
+    boolean mayMatch(int block, int op, Element literal) {
+        byte f = flags[block];
+        if ((f & NANS) != 0 || op == Element.NE) {
+            return true;
+        }
+        switch (literal.type()) {
+            case NOVALUE:
+                return false;
+            case INT:
+            case FLOAT:
+                if ((f & STRINGS) != 0) {
+                    return true;
+                }
+                double v = literal.type() == Type.INT ? literal.intValue() : literal.floatValue();
+                return (f & NUMBERS) != 0 && inRange(op, compare(low[block], v),
+                        compare(high[block], v));
+            case STRING:
+                if ((f & NUMBERS) != 0) {
+                    return true;
+                }
+                String s = literal.stringValue();
+                return (f & STRINGS) != 0 && inRange(op, lowString[block].compareTo(s),
+                        highString[block].compareTo(s));
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Compares with the primitive operators, the way numbers are
+     * compared in where conditions.
+     */
+    private static int compare(double a, double b) {
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+    /**
+     * Returns true if a value between low and high, which compare to
+     * the literal as lowCmp and highCmp, may satisfy op.
+     */
+    private static boolean inRange(int op, int lowCmp, int highCmp) {
+        switch (op) {
+            case Element.EQ:
+                return lowCmp <= 0 && highCmp >= 0;
+            case Element.GT:
+                return highCmp > 0;
+            case Element.GE:
+                return highCmp >= 0;
+            case Element.LT:
+                return lowCmp < 0;
+            default:
+                return lowCmp <= 0;
+        }
+    }
+}